@@ -0,0 +1,201 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.syncslides.db;
+
+import android.test.AndroidTestCase;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+
+import io.v.android.v23.V;
+import io.v.syncslides.model.Deck;
+import io.v.syncslides.model.DeckImpl;
+import io.v.syncslides.model.SlideSource;
+import io.v.v23.InputChannels;
+import io.v.v23.context.CancelableVContext;
+import io.v.v23.syncbase.nosql.Database;
+import io.v.v23.syncbase.nosql.KeyValue;
+import io.v.v23.syncbase.nosql.RowRange;
+import io.v.v23.verror.VException;
+
+import static io.v.v23.VFutures.sync;
+
+/**
+ * Checks imports, and the collection of their blobs, against a local Syncbase.
+ */
+public class ImportTest extends AndroidTestCase {
+    private static final int BATCH_SIZE = 3;
+
+    private CancelableVContext mContext;
+    private File mFilesDir;
+    private SyncbaseDB mDB;
+    private Database mDatabase;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = V.init(getContext()).withCancel();
+        mFilesDir = new File(getContext().getCacheDir(), "import-test");
+        deleteRecursively(mFilesDir);
+        mFilesDir.mkdirs();
+        mDB = new SyncbaseDB();
+        mDB.init(mContext, V.getPrincipal(mContext).blessingStore().defaultBlessings(),
+                mFilesDir);
+        mDatabase = mDB.awaitDatabase();
+        mDB.setImportBatchSize(BATCH_SIZE);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.cancel();
+        deleteRecursively(mFilesDir);
+        super.tearDown();
+    }
+
+    public void testImportDroppedAfterFirstBatch() throws Exception {
+        Deck deck = new DeckImpl("Unfinished", new byte[]{1}, UUID.randomUUID().toString());
+        List<SlideSource> slides = Lists.newArrayList();
+        for (int i = 0; i < 2 * BATCH_SIZE; i++) {
+            slides.add(new TestSlide(i < BATCH_SIZE, "", (byte) 3));
+        }
+        try {
+            mDB.importDeck(deck, slides).get();
+            fail("The import should have failed in its second batch");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().toString(), e.getCause() instanceof VException);
+        }
+        mDB.backfillDeckIndex();
+        assertFalse(contains(DeckWatcher.scanDecks(mContext, mDatabase), deck));
+        assertFalse(contains(DeckWatcher.scanIndex(mContext, mDatabase), deck));
+        assertEquals(0, countRows(SyncbaseDB.DECKS_TABLE, deck.getId()));
+        assertEquals(0, countRows(SyncbaseDB.NOTES_TABLE, deck.getId()));
+    }
+
+    public void testImportAddsDeck() throws Exception {
+        Deck deck = new DeckImpl("Finished", new byte[]{1}, UUID.randomUUID().toString());
+        List<SlideSource> slides = Lists.newArrayList();
+        for (int i = 0; i < 2 * BATCH_SIZE; i++) {
+            // Only every other slide has notes.
+            slides.add(new TestSlide(true, i % 2 == 0 ? "Notes " + i : "", (byte) 3));
+        }
+        mDB.importDeck(deck, slides).get();
+        assertTrue(contains(DeckWatcher.scanDecks(mContext, mDatabase), deck));
+        assertTrue(contains(DeckWatcher.scanIndex(mContext, mDatabase), deck));
+        assertEquals(2 * BATCH_SIZE,
+                SlideWatcher.scanSlides(mContext, mDatabase, deck.getId()).size());
+        // Notes are sparse: slides without notes have no Notes row.
+        assertEquals(BATCH_SIZE,
+                countRows(SyncbaseDB.NOTES_TABLE, SlideKeys.prefix(deck.getId())));
+    }
+
+    public void testMoveDuringCollectionKeepsBlob() throws Exception {
+        // Enough slides for the collection to mark them in two pages.  Only the last one
+        // has its own image.
+        Deck deck = new DeckImpl("Moved", new byte[]{1}, UUID.randomUUID().toString());
+        List<SlideSource> slides = Lists.newArrayList();
+        for (int i = 0; i < BlobCollector.PAGE_SIZE; i++) {
+            slides.add(new TestSlide(true, "", (byte) 3));
+        }
+        slides.add(new TestSlide(true, "", (byte) 4));
+        mDB.importDeck(deck, slides).get();
+        List<String> keys = Lists.newArrayList(
+                SlideWatcher.scanSlides(mContext, mDatabase, deck.getId()).keySet());
+        int blobs = countRows(SyncbaseDB.BLOB_INDEX_TABLE, "");
+
+        // After the first page, move the last slide to the start, behind the scan.
+        BlobCollector collector = new BlobCollector(mContext, mDatabase) {
+            private boolean mMoved;
+
+            @Override
+            void pause() throws InterruptedException {
+                if (mMoved) {
+                    return;
+                }
+                mMoved = true;
+                try {
+                    mDB.moveSlide(deck.getId(), keys.get(keys.size() - 1), null, keys.get(0))
+                            .get();
+                } catch (ExecutionException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        };
+        collector.collect();
+        assertEquals(blobs, countRows(SyncbaseDB.BLOB_INDEX_TABLE, ""));
+    }
+
+    private static boolean contains(List<Deck> decks, Deck deck) {
+        for (Deck d : decks) {
+            if (d.getId().equals(deck.getId())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int countRows(String table, String prefix) throws VException {
+        int count = 0;
+        for (KeyValue row : InputChannels.asIterable(mDatabase.getTable(table)
+                .scan(mContext, RowRange.prefix(prefix)))) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * A slide whose thumbnail can't be read unless it is {@code readable}.
+     */
+    private static class TestSlide implements SlideSource {
+        private final boolean mReadable;
+        private final String mNotes;
+        private final byte mImage;
+
+        TestSlide(boolean readable, String notes, byte image) {
+            mReadable = readable;
+            mNotes = notes;
+            mImage = image;
+        }
+
+        @Override
+        public ByteSource getThumb() {
+            if (mReadable) {
+                return ByteSource.wrap(new byte[]{2});
+            }
+            return new ByteSource() {
+                @Override
+                public InputStream openStream() throws IOException {
+                    throw new IOException("Dropped");
+                }
+            };
+        }
+
+        @Override
+        public ByteSource getImage() {
+            return ByteSource.wrap(new byte[]{mImage});
+        }
+
+        @Override
+        public String getNotes() {
+            return mNotes;
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
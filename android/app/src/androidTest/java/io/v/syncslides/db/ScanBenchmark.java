@@ -0,0 +1,198 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.syncslides.db;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import java.io.File;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import io.v.android.v23.V;
+import io.v.impl.google.services.syncbase.SyncbaseServer;
+import io.v.v23.InputChannels;
+import io.v.v23.VIterable;
+import io.v.v23.context.CancelableVContext;
+import io.v.v23.context.VContext;
+import io.v.v23.rpc.Server;
+import io.v.v23.security.BlessingPattern;
+import io.v.v23.security.access.AccessList;
+import io.v.v23.security.access.Constants;
+import io.v.v23.security.access.Permissions;
+import io.v.v23.syncbase.Syncbase;
+import io.v.v23.syncbase.SyncbaseApp;
+import io.v.v23.syncbase.nosql.BatchDatabase;
+import io.v.v23.syncbase.nosql.Database;
+import io.v.v23.syncbase.nosql.Table;
+import io.v.v23.vdl.VdlAny;
+import io.v.v23.verror.VException;
+
+import static io.v.v23.VFutures.sync;
+
+/**
+ * Compares the SyncQL queries that DeckWatcher and SlideWatcher used for their initial
+ * loads with the key range scans that replaced them.  For the deck list, both the skip
+ * scan of the Decks table and the scan of the DeckIndex table are timed.  The database has
+ * {@value #NUM_DECKS} decks of {@value #SLIDES_PER_DECK} slides.  Results are logged
+ * with the tag "ScanBenchmark".
+ */
+public class ScanBenchmark extends AndroidTestCase {
+    private static final String TAG = "ScanBenchmark";
+    private static final int NUM_DECKS = 100;
+    private static final int SLIDES_PER_DECK = 200;
+    private static final int THUMBNAIL_SIZE = 4 * 1024;
+    private static final int ITERATIONS = 5;
+
+    private CancelableVContext mContext;
+    private File mStorageDir;
+    private Database mDb;
+    private String mDeckId;
+
+    private interface Load {
+        /**
+         * Returns the number of rows loaded.
+         */
+        int run() throws VException;
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = V.init(getContext()).withCancel();
+        mStorageDir = new File(getContext().getCacheDir(), "scan-benchmark");
+        deleteRecursively(mStorageDir);
+        mStorageDir.mkdirs();
+        AccessList everyone = new AccessList(
+                ImmutableList.of(new BlessingPattern("...")), ImmutableList.<String>of());
+        Permissions permissions = new Permissions(ImmutableMap.of(
+                Constants.RESOLVE.getValue(), everyone,
+                Constants.READ.getValue(), everyone,
+                Constants.WRITE.getValue(), everyone,
+                Constants.ADMIN.getValue(), everyone));
+        // The server stops when mContext is cancelled.
+        VContext serverContext = SyncbaseServer.withNewServer(
+                mContext, new SyncbaseServer.Params()
+                        .withPermissions(permissions)
+                        .withStorageRootDir(mStorageDir.getAbsolutePath()));
+        Server server = V.getServer(serverContext);
+        String serverName = "/" + server.getStatus().getEndpoints()[0];
+        SyncbaseApp app = Syncbase.newService(serverName).getApp("benchmark");
+        sync(app.create(mContext, permissions));
+        mDb = app.getNoSqlDatabase("benchmark", null);
+        sync(mDb.create(mContext, permissions));
+        sync(mDb.getTable(SyncbaseDB.DECKS_TABLE).create(mContext, permissions));
+        sync(mDb.getTable(SyncbaseDB.DECK_INDEX_TABLE).create(mContext, permissions));
+        sync(mDb.getTable(SyncbaseDB.NOTES_TABLE).create(mContext, permissions));
+        populate();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.cancel();
+        deleteRecursively(mStorageDir);
+        super.tearDown();
+    }
+
+    public void testDeckList() throws Exception {
+        long queryMs = time(NUM_DECKS, this::queryDecks);
+        long scanMs = time(NUM_DECKS, () -> DeckWatcher.scanDecks(mContext, mDb).size());
+        long indexMs = time(NUM_DECKS, () -> DeckWatcher.scanIndex(mContext, mDb).size());
+        report("Deck list", queryMs, scanMs);
+        Log.i(TAG, String.format("Deck list from the index: %dms", indexMs));
+    }
+
+    public void testSlideList() throws Exception {
+        long queryMs = time(SLIDES_PER_DECK, this::querySlides);
+        long scanMs = time(SLIDES_PER_DECK,
+                () -> SlideWatcher.scanSlides(mContext, mDb, mDeckId).size());
+        report("Slide list", queryMs, scanMs);
+    }
+
+    /**
+     * The deck list query that DeckWatcher used to run.
+     */
+    private int queryDecks() throws VException {
+        return count(mDb, "SELECT k, v FROM Decks WHERE Type(v) like \"%VDeck\"");
+    }
+
+    /**
+     * The slide list query that SlideWatcher used to run.
+     */
+    private int querySlides() throws VException {
+        return count(mDb, "SELECT k, v FROM Decks WHERE Type(v) LIKE \"%VSlide\" " +
+                "AND k LIKE \"" + SlideKeys.prefix(mDeckId) + "%\"");
+    }
+
+    private int count(Database db, String query) throws VException {
+        VIterable<List<VdlAny>> results =
+                InputChannels.asIterable(sync(db.exec(mContext, query)));
+        int count = 0;
+        for (List<VdlAny> row : results) {
+            count++;
+        }
+        if (results.error() != null) {
+            throw results.error();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the average time of {@code load} in milliseconds, after one warm-up run.
+     */
+    private long time(int expectedRows, Load load) throws VException {
+        assertEquals(expectedRows, load.run());
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            assertEquals(expectedRows, load.run());
+        }
+        return (System.nanoTime() - start) / ITERATIONS / 1000000;
+    }
+
+    private void report(String name, long queryMs, long scanMs) {
+        Log.i(TAG, String.format("%s with %d decks x %d slides: query %dms, scan %dms",
+                name, NUM_DECKS, SLIDES_PER_DECK, queryMs, scanMs));
+    }
+
+    private void populate() throws VException {
+        Random random = new Random(0);
+        byte[] thumbnail = new byte[THUMBNAIL_SIZE];
+        random.nextBytes(thumbnail);
+        for (int i = 0; i < NUM_DECKS; i++) {
+            String deckId = UUID.randomUUID().toString();
+            if (i == NUM_DECKS / 2) {
+                mDeckId = deckId;
+            }
+            BatchDatabase batch = sync(mDb.beginBatch(mContext, null));
+            Table decks = batch.getTable(SyncbaseDB.DECKS_TABLE);
+            Table notes = batch.getTable(SyncbaseDB.NOTES_TABLE);
+            sync(decks.put(mContext, deckId, new VDeck("Deck " + i, thumbnail), VDeck.class));
+            for (int j = 0; j < SLIDES_PER_DECK; j++) {
+                String key = SlideKeys.encode(deckId, j);
+                sync(decks.put(mContext, key, new VSlide(thumbnail, ""), VSlide.class));
+                if (j % 10 == 0) {
+                    sync(notes.put(mContext, key, new VNote("Notes " + j), VNote.class));
+                }
+            }
+            Table index = batch.getTable(SyncbaseDB.DECK_INDEX_TABLE);
+            sync(index.put(mContext, deckId, new VDeck("Deck " + i, thumbnail), VDeck.class));
+            sync(batch.commit(mContext));
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -17,11 +17,15 @@ import android.widget.TextView;
 import android.widget.Toast;
 import android.widget.Toolbar;
 
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+
 import java.util.Calendar;
 import java.util.Locale;
 
 import io.v.syncslides.db.DB;
 import io.v.syncslides.discovery.PresentationDiscovery;
+import io.v.syncslides.lib.Bitmaps;
 import io.v.syncslides.model.Deck;
 import io.v.syncslides.model.DynamicList;
 import io.v.syncslides.model.ListListener;
@@ -102,8 +106,18 @@ public class DeckListAdapter extends RecyclerView.Adapter<DeckListAdapter.ViewHo
             holder.mToolbar.setOnMenuItemClickListener(item -> {
                 switch (item.getItemId()) {
                     case R.id.action_delete_deck:
-                        // TODO(kash): Implement delete.
-                        // mDB.deleteDeck(deck.getId());
+                        Futures.addCallback(mDB.deleteDeck(deck.getId()),
+                                new FutureCallback<Void>() {
+                                    @Override
+                                    public void onSuccess(Void result) {
+                                        Log.i(TAG, "Deleted deck " + deck.getId());
+                                    }
+
+                                    @Override
+                                    public void onFailure(Throwable t) {
+                                        Log.e(TAG, "Couldn't delete deck " + deck.getId(), t);
+                                    }
+                                });
                         return true;
                 }
                 return false;
@@ -121,7 +135,7 @@ public class DeckListAdapter extends RecyclerView.Adapter<DeckListAdapter.ViewHo
             });
         }
         holder.mToolbarTitle.setText(deck.getTitle());
-        holder.mThumb.setImageBitmap(deck.getThumb());
+        holder.mThumb.setImageBitmap(Bitmaps.decode(deck.getThumbData()));
     }
 
     @Override
@@ -178,6 +192,24 @@ public class DeckListAdapter extends RecyclerView.Adapter<DeckListAdapter.ViewHo
             DeckListAdapter.this.notifyItemRemoved(mLiveDecks.getItemCount() + position);
         }
 
+        @Override
+        public void notifyItemRangeChanged(int positionStart, int itemCount) {
+            DeckListAdapter.this.notifyItemRangeChanged(
+                    mLiveDecks.getItemCount() + positionStart, itemCount);
+        }
+
+        @Override
+        public void notifyItemRangeInserted(int positionStart, int itemCount) {
+            DeckListAdapter.this.notifyItemRangeInserted(
+                    mLiveDecks.getItemCount() + positionStart, itemCount);
+        }
+
+        @Override
+        public void notifyItemRangeRemoved(int positionStart, int itemCount) {
+            DeckListAdapter.this.notifyItemRangeRemoved(
+                    mLiveDecks.getItemCount() + positionStart, itemCount);
+        }
+
         @Override
         public void onError(Exception e) {
             DeckListAdapter.this.onError(e);
@@ -14,6 +14,7 @@ import android.widget.ImageView;
 import android.widget.Toast;
 
 import io.v.syncslides.db.DB;
+import io.v.syncslides.lib.Bitmaps;
 import io.v.syncslides.model.DynamicList;
 import io.v.syncslides.model.ListListener;
 import io.v.syncslides.model.Session;
@@ -90,7 +91,7 @@ public class FullscreenSlideFragment extends Fragment {
             return;
         }
         // TODO(kash): Display the fullsize image instead of the thumbnail.
-        mFullScreenImage.setImageBitmap(mSlides.get(mSlideNum).getThumb());
+        mFullScreenImage.setImageBitmap(Bitmaps.decode(mSlides.get(mSlideNum).getThumbData()));
     }
 
     /**
@@ -117,6 +118,21 @@ public class FullscreenSlideFragment extends Fragment {
             updateView();
         }
 
+        @Override
+        public void notifyItemRangeChanged(int positionStart, int itemCount) {
+            updateView();
+        }
+
+        @Override
+        public void notifyItemRangeInserted(int positionStart, int itemCount) {
+            updateView();
+        }
+
+        @Override
+        public void notifyItemRangeRemoved(int positionStart, int itemCount) {
+            updateView();
+        }
+
         @Override
         public void onError(Exception e) {
             handleFatalError("Error watching slide list", e);
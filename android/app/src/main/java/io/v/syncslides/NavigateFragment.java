@@ -23,6 +23,7 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import io.v.syncslides.db.DB;
+import io.v.syncslides.lib.Bitmaps;
 import io.v.syncslides.model.DynamicList;
 import io.v.syncslides.model.ListListener;
 import io.v.syncslides.model.Session;
@@ -224,6 +225,7 @@ public class NavigateFragment extends Fragment {
         mSession.removeSlideNumberListener(mSlideNumberListener);
         mSlides.removeListener(mSlideListListener);
         mSlides = null;
+        mSession.flush();
     }
 
     @Override
@@ -290,16 +292,16 @@ public class NavigateFragment extends Fragment {
             return;
         }
         if (mSlideNum > 0) {
-            setThumbBitmap(mPrevThumb, mSlides.get(mSlideNum - 1).getThumb());
+            setThumbBitmap(mPrevThumb, Bitmaps.decode(mSlides.get(mSlideNum - 1).getThumbData()));
         } else {
             setThumbNull(mPrevThumb);
         }
         // TODO(kash): Switch to full size image.
-        mCurrentSlide.setImageBitmap(mSlides.get(mSlideNum).getThumb());
+        mCurrentSlide.setImageBitmap(Bitmaps.decode(mSlides.get(mSlideNum).getThumbData()));
         if (mSlideNum == mSlides.getItemCount() - 1) {
             setThumbNull(mNextThumb);
         } else {
-            setThumbBitmap(mNextThumb, mSlides.get(mSlideNum + 1).getThumb());
+            setThumbBitmap(mNextThumb, Bitmaps.decode(mSlides.get(mSlideNum + 1).getThumbData()));
         }
         if (!mSlides.get(mSlideNum).getNotes().equals("")) {
             mNotes.setText(mSlides.get(mSlideNum).getNotes());
@@ -340,7 +342,8 @@ public class NavigateFragment extends Fragment {
      */
     public void saveNotes() {
         final String notes = mNotes.getText().toString();
-        if (mEditing && (!notes.equals(mSlides.get(mSlideNum).getNotes()))) {
+        // The session skips notes that haven't changed.
+        if (mEditing) {
             try {
                 mSession.setNotes(mSlideNum, notes);
             } catch (VException e) {
@@ -393,6 +396,21 @@ public class NavigateFragment extends Fragment {
             updateView();
         }
 
+        @Override
+        public void notifyItemRangeChanged(int positionStart, int itemCount) {
+            updateView();
+        }
+
+        @Override
+        public void notifyItemRangeInserted(int positionStart, int itemCount) {
+            updateView();
+        }
+
+        @Override
+        public void notifyItemRangeRemoved(int positionStart, int itemCount) {
+            updateView();
+        }
+
         @Override
         public void onError(Exception e) {
             handleFatalError("Error watching slide list", e);
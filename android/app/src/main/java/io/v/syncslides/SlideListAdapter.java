@@ -12,6 +12,7 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import io.v.syncslides.db.DB;
+import io.v.syncslides.lib.Bitmaps;
 import io.v.syncslides.model.DynamicList;
 import io.v.syncslides.model.ListListener;
 import io.v.syncslides.model.Session;
@@ -47,7 +48,7 @@ public class SlideListAdapter extends RecyclerView.Adapter<SlideListAdapter.View
     public void onBindViewHolder(SlideListAdapter.ViewHolder holder, int position) {
         Slide slide = mSlides.get(position);
         holder.mNotes.setText(slide.getNotes());
-        holder.mImage.setImageBitmap(slide.getThumb());
+        holder.mImage.setImageBitmap(Bitmaps.decode(slide.getThumbData()));
     }
 
     @Override
@@ -0,0 +1,26 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.syncslides;
+
+import android.app.Application;
+import android.util.Log;
+
+import io.v.syncslides.lib.Dispatchers;
+import io.v.syncslides.lib.MainThreadDispatcher;
+
+/**
+ * Connects the platform-independent core module to Android before anything uses it:
+ * its listeners are notified on the main thread and its messages go to logcat.
+ */
+public class SyncSlidesApplication extends Application {
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        Dispatchers.setMainThreadFactory(MainThreadDispatcher::new);
+        io.v.syncslides.lib.Log.setPrinter((priority, tag, msg, tr) ->
+                Log.println(priority, tag,
+                        tr == null ? msg : msg + '\n' + Log.getStackTraceString(tr)));
+    }
+}
@@ -9,6 +9,10 @@ import android.content.Context;
 import android.content.Intent;
 import android.util.Log;
 
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
 import io.v.android.libs.security.BlessingsManager;
 import io.v.android.v23.V;
 import io.v.android.v23.services.blessing.BlessingCreationException;
@@ -118,7 +122,19 @@ public class V23 {
             p.blessingStore().set(blessings, new BlessingPattern("..."));
             VSecurity.addToRoots(p, blessings);
             mBlessings = blessings;
-            DB.Singleton.get().init(mContext);
+            ListenableFuture<Void> ready =
+                    DB.Singleton.get().init(mVContext, blessings, mContext.getFilesDir());
+            Futures.addCallback(ready, new FutureCallback<Void>() {
+                @Override
+                public void onSuccess(Void result) {
+                    Log.i(TAG, "DB is ready");
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    Log.e(TAG, "Couldn't initialize DB", t);
+                }
+            });
         } catch (VException e) {
             throw new InitException(
                     String.format("Couldn't set local blessing %s", blessings), e);
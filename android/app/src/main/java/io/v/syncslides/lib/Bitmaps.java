@@ -0,0 +1,24 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.syncslides.lib;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+/**
+ * Decodes the image bytes of decks and slides for display.
+ */
+public class Bitmaps {
+    /**
+     * Returns the Bitmap encoded in {@code data} or null if {@code data} is null or
+     * can't be decoded.
+     */
+    public static Bitmap decode(byte[] data) {
+        if (data == null) {
+            return null;
+        }
+        return BitmapFactory.decodeByteArray(data, 0 /* offset */, data.length);
+    }
+}
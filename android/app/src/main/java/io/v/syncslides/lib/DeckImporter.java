@@ -5,9 +5,14 @@
 package io.v.syncslides.lib;
 
 import android.content.ContentResolver;
+import android.net.Uri;
 import android.support.v4.provider.DocumentFile;
 
 import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteSource;
 import com.google.common.io.ByteStreams;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
@@ -19,6 +24,9 @@ import org.json.JSONObject;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Executors;
@@ -26,8 +34,7 @@ import java.util.concurrent.Executors;
 import io.v.syncslides.db.DB;
 import io.v.syncslides.model.Deck;
 import io.v.syncslides.model.DeckImpl;
-import io.v.syncslides.model.Slide;
-import io.v.syncslides.model.SlideImpl;
+import io.v.syncslides.model.SlideSource;
 import io.v.v23.verror.VException;
 
 import static io.v.v23.VFutures.sync;
@@ -84,8 +91,9 @@ public class DeckImporter {
         if (!dir.isDirectory()) {
             throw new ImportException("Must import from a directory, got: " + dir);
         }
+        Map<String, DocumentFile> files = listFiles(dir);
         // Read the deck metadata file.
-        DocumentFile metadataFile = dir.findFile(DECK_JSON);
+        DocumentFile metadataFile = files.get(DECK_JSON);
         if (metadataFile == null) {
             throw new ImportException("Couldn't find deck metadata file 'deck.json'");
         }
@@ -106,9 +114,9 @@ public class DeckImporter {
         try {
             String id = UUID.randomUUID().toString();
             String title = metadata.getString(TITLE);
-            byte[] thumbData = readImage(dir, metadata.getString(THUMB));
+            byte[] thumbData = image(files, metadata.getString(THUMB)).read();
             Deck deck = new DeckImpl(title, thumbData, id);
-            Slide[] slides = readSlides(dir, metadata);
+            List<SlideSource> slides = readSlides(files, metadata);
             sync(mDB.importDeck(deck, slides));
         } catch (JSONException e) {
             throw new ImportException("Invalid format for deck metadata", e);
@@ -120,35 +128,85 @@ public class DeckImporter {
         return null;
     }
 
-    // TODO(kash): Lazily read the slide images so we don't need to have them all
-    // in memory simultaneously.
-    private Slide[] readSlides(DocumentFile dir, JSONObject metadata)
+    /**
+     * Returns the slides in the deck metadata.  Their images are read while the DB stores
+     * them, so the whole deck is never in memory at once.  Every file is checked up front,
+     * so a missing file fails the import before anything is stored.
+     */
+    private List<SlideSource> readSlides(Map<String, DocumentFile> files, JSONObject metadata)
             throws JSONException, IOException {
         if (!metadata.has(SLIDES)) {
-            return new Slide[0];
+            return ImmutableList.of();
         }
         JSONArray slides = metadata.getJSONArray(SLIDES);
-        Slide[] ret = new Slide[slides.length()];
+        List<SlideSource> ret = Lists.newArrayListWithCapacity(slides.length());
         for (int i = 0; i < slides.length(); ++i) {
             JSONObject slide = slides.getJSONObject(i);
-            byte[] thumbData = readImage(dir, slide.getString(THUMB));
-            byte[] imageData = thumbData;
+            ByteSource thumb = image(files, slide.getString(THUMB));
+            ByteSource image = thumb;
             if (slide.has(IMAGE)) {
-                imageData = readImage(dir, slide.getString(IMAGE));
+                image = image(files, slide.getString(IMAGE));
             }
-            String note = slide.getString(NOTE);
-            // Temporarily use the thumbnail image's filename as the slide's unique ID.  SyncbaseDB
-            // will generate a real ID on its own, so this is just a placeholder.
-            ret[i] = new SlideImpl(slide.getString(THUMB), thumbData, imageData, note);
+            ret.add(new FileSlide(thumb, image, slide.getString(NOTE)));
         }
         return ret;
     }
 
-    private byte[] readImage(DocumentFile dir, String fileName) throws IOException {
-        DocumentFile file = dir.findFile(fileName);
+    /**
+     * Returns the files in {@code dir} by name.  DocumentFile.findFile lists the directory
+     * on every call, which adds up over hundreds of slides.
+     */
+    private static Map<String, DocumentFile> listFiles(DocumentFile dir) {
+        Map<String, DocumentFile> files = Maps.newHashMap();
+        for (DocumentFile file : dir.listFiles()) {
+            files.put(file.getName(), file);
+        }
+        return files;
+    }
+
+    private ByteSource image(Map<String, DocumentFile> files, String fileName)
+            throws FileNotFoundException {
+        DocumentFile file = files.get(fileName);
         if (file == null) {
             throw new FileNotFoundException("Image file doesn't exist: " + fileName);
         }
-        return ByteStreams.toByteArray(mContentResolver.openInputStream(file.getUri()));
+        final Uri uri = file.getUri();
+        return new ByteSource() {
+            @Override
+            public InputStream openStream() throws IOException {
+                InputStream in = mContentResolver.openInputStream(uri);
+                if (in == null) {
+                    throw new FileNotFoundException("Couldn't open " + uri);
+                }
+                return in;
+            }
+        };
+    }
+
+    private static class FileSlide implements SlideSource {
+        private final ByteSource mThumb;
+        private final ByteSource mImage;
+        private final String mNotes;
+
+        FileSlide(ByteSource thumb, ByteSource image, String notes) {
+            mThumb = thumb;
+            mImage = image;
+            mNotes = notes;
+        }
+
+        @Override
+        public ByteSource getThumb() {
+            return mThumb;
+        }
+
+        @Override
+        public ByteSource getImage() {
+            return mImage;
+        }
+
+        @Override
+        public String getNotes() {
+            return mNotes;
+        }
     }
 }
@@ -0,0 +1,36 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.syncslides.lib;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * Dispatches callbacks to the main thread.  Each instance has its own Handler, so
+ * {@link #removeAll} only removes the callbacks that were posted to that instance.
+ */
+public class MainThreadDispatcher implements Dispatcher {
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    @Override
+    public void post(Runnable callback) {
+        mHandler.post(callback);
+    }
+
+    @Override
+    public void postDelayed(Runnable callback, long delayMs) {
+        mHandler.postDelayed(callback, delayMs);
+    }
+
+    @Override
+    public void removeCallbacks(Runnable callback) {
+        mHandler.removeCallbacks(callback);
+    }
+
+    @Override
+    public void removeAll() {
+        mHandler.removeCallbacksAndMessages(null);
+    }
+}
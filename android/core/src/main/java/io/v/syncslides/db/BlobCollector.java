@@ -0,0 +1,268 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.syncslides.db;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import io.v.syncslides.lib.Log;
+import io.v.v23.InputChannels;
+import io.v.v23.VIterable;
+import io.v.v23.context.CancelableVContext;
+import io.v.v23.context.VContext;
+import io.v.v23.syncbase.nosql.BatchDatabase;
+import io.v.v23.syncbase.nosql.BlobRef;
+import io.v.v23.syncbase.nosql.Database;
+import io.v.v23.syncbase.nosql.KeyValue;
+import io.v.v23.syncbase.nosql.RowRange;
+import io.v.v23.syncbase.nosql.Table;
+import io.v.v23.verror.VException;
+import io.v.v23.vom.VomUtil;
+
+import static io.v.syncslides.db.SyncbaseMetrics.timed;
+import static io.v.v23.VFutures.sync;
+
+/**
+ * Deletes slide image blobs that no slide refers to any more, e.g. the blobs of a failed
+ * import.
+ *
+ * Syncbase can't list the blobs it stores, so the candidates are the blobs in the
+ * BlobIndex table, which has every blob that an import on this device wrote.  Each
+ * collection marks the ImageRef of every VSlide in the Decks table and then sweeps the
+ * indexed blobs that weren't marked.  The mark reads from a snapshot, so a slide that
+ * moves to a new key during the mark, locally or through sync, is still seen at its old
+ * key.  Blobs that weren't marked are checked again against a second snapshot before
+ * they are swept.
+ *
+ * A collection is split into pages of {@value #PAGE_SIZE} rows with a pause after each,
+ * and runs on a single background-priority thread, so it doesn't compete with the UI or
+ * with a live presentation.  Imports must be bracketed by {@link #beginImport} and
+ * {@link #endImport}.  A collection that overlaps an import gives up and tries again
+ * later, since the import's blobs may not be referenced yet.
+ */
+class BlobCollector {
+    private static final String TAG = "BlobCollector";
+    static final int PAGE_SIZE = 50;
+    private static final long PAGE_PAUSE_MS = 250;
+    private static final long FIRST_RUN_DELAY_MINUTES = 1;
+    private static final long RUN_INTERVAL_MINUTES = 60;
+
+    private final VContext mContext;
+    private final Database mDB;
+    private final ScheduledExecutorService mExecutor =
+            Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, TAG);
+                // On Android this maps to a lower priority than THREAD_PRIORITY_BACKGROUND.
+                thread.setPriority(Thread.MIN_PRIORITY);
+                thread.setDaemon(true);
+                return thread;
+            });
+    // Imports hold the read lock.  The sweep holds the write lock while it deletes a blob.
+    private final ReadWriteLock mImportLock = new ReentrantReadWriteLock();
+    // Incremented whenever an import starts.
+    private final AtomicLong mImportGeneration = new AtomicLong();
+
+    BlobCollector(VContext context, Database db) {
+        mContext = context;
+        mDB = db;
+    }
+
+    /**
+     * Runs a collection shortly and then periodically.
+     */
+    void start() {
+        mExecutor.scheduleWithFixedDelay(this::collectSafely,
+                FIRST_RUN_DELAY_MINUTES, RUN_INTERVAL_MINUTES, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Runs a collection as soon as the current one, if any, is done.
+     */
+    void collectSoon() {
+        mExecutor.execute(this::collectSafely);
+    }
+
+    /**
+     * Must be called, on the importing thread, before an import writes its first blob.
+     */
+    void beginImport() {
+        mImportLock.readLock().lock();
+        mImportGeneration.incrementAndGet();
+    }
+
+    /**
+     * Must be called, on the importing thread, when an import is done or has failed.
+     */
+    void endImport() {
+        mImportLock.readLock().unlock();
+    }
+
+    private void collectSafely() {
+        try {
+            collect();
+        } catch (VException e) {
+            Log.e(TAG, "Blob collection failed: " + e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    void collect() throws VException, InterruptedException {
+        long generation = mImportGeneration.get();
+        // Read the candidates first so that blobs indexed during the mark aren't swept.
+        Table index = mDB.getTable(SyncbaseDB.BLOB_INDEX_TABLE);
+        List<KeyValue> candidates = Lists.newArrayList();
+        for (List<KeyValue> page = firstPage(index); !page.isEmpty();
+             page = nextPage(index, page)) {
+            candidates.addAll(page);
+        }
+        if (candidates.isEmpty()) {
+            return;
+        }
+        List<KeyValue> unmarked = unmarked(candidates, mark());
+        if (!unmarked.isEmpty()) {
+            // Check again before deleting anything, in case a slide that uses one of
+            // these blobs arrived through sync after the first snapshot.
+            unmarked = unmarked(unmarked, mark());
+        }
+        int swept = 0;
+        for (KeyValue candidate : unmarked) {
+            String ref = (String) VomUtil.decode(candidate.getValue(), String.class);
+            if (!sweep(index, candidate.getKey(), ref, generation)) {
+                Log.i(TAG, "An import started; stopping after sweeping " + swept + " blobs");
+                return;
+            }
+            swept++;
+            if (swept % PAGE_SIZE == 0) {
+                pause();
+            }
+        }
+        Log.i(TAG, "Swept " + swept + " of " + candidates.size() + " indexed blobs");
+    }
+
+    /**
+     * Returns the ImageRef of every VSlide in a snapshot of the Decks table.
+     */
+    private Set<String> mark() throws VException, InterruptedException {
+        BatchDatabase snapshot = sync(timed("beginBatch", null, mDB.beginBatch(mContext, null)));
+        try {
+            Set<String> marked = Sets.newHashSet();
+            Table decks = snapshot.getTable(SyncbaseDB.DECKS_TABLE);
+            for (List<KeyValue> page = firstPage(decks); !page.isEmpty();
+                 page = nextPage(decks, page)) {
+                for (KeyValue row : page) {
+                    if (SlideKeys.isSlideKey(row.getKey())) {
+                        VSlide slide = (VSlide) VomUtil.decode(row.getValue(), VSlide.class);
+                        marked.add(slide.getImageRef());
+                    }
+                }
+            }
+            return marked;
+        } finally {
+            snapshot.abort(mContext);
+        }
+    }
+
+    /**
+     * Returns the BlobIndex rows in {@code candidates} whose blobs aren't in
+     * {@code marked}.
+     */
+    private static List<KeyValue> unmarked(List<KeyValue> candidates, Set<String> marked)
+            throws VException {
+        List<KeyValue> result = Lists.newArrayList();
+        for (KeyValue candidate : candidates) {
+            String ref = (String) VomUtil.decode(candidate.getValue(), String.class);
+            if (!marked.contains(ref)) {
+                result.add(candidate);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Deletes the blob and its index row, unless an import has started since
+     * {@code generation}.
+     *
+     * @return false if the blob wasn't deleted because of an import
+     */
+    private boolean sweep(Table index, String digest, String ref, long generation)
+            throws VException {
+        if (!mImportLock.writeLock().tryLock()) {
+            return false;
+        }
+        try {
+            if (mImportGeneration.get() != generation) {
+                return false;
+            }
+            Log.d(TAG, "Deleting unreferenced blob " + ref);
+            // Delete the index row first so that a failure can't leave it pointing at
+            // a deleted blob.
+            sync(timed("delete", SyncbaseDB.BLOB_INDEX_TABLE, index.delete(mContext, digest)));
+            sync(timed("blobDelete", null,
+                    mDB.readBlob(mContext, new BlobRef(ref)).delete(mContext)));
+            return true;
+        } finally {
+            mImportLock.writeLock().unlock();
+        }
+    }
+
+    private List<KeyValue> firstPage(Table table) throws VException {
+        return scanPage(table, RowRange.range("", ""));
+    }
+
+    /**
+     * Returns the page after {@code previous}, after pausing to leave Syncbase to others.
+     */
+    private List<KeyValue> nextPage(Table table, List<KeyValue> previous)
+            throws VException, InterruptedException {
+        if (previous.size() < PAGE_SIZE) {
+            return Lists.newArrayList();
+        }
+        pause();
+        // The smallest key after the last one.
+        String start = previous.get(previous.size() - 1).getKey() + "\u0000";
+        return scanPage(table, RowRange.range(start, ""));
+    }
+
+    /**
+     * Leaves Syncbase to others for a while.
+     */
+    void pause() throws InterruptedException {
+        Thread.sleep(PAGE_PAUSE_MS);
+    }
+
+    /**
+     * Returns up to {@value #PAGE_SIZE} rows from the start of {@code range}.
+     */
+    private List<KeyValue> scanPage(Table table, RowRange range) throws VException {
+        CancelableVContext scanContext = mContext.withCancel();
+        long start = System.nanoTime();
+        try {
+            VIterable<KeyValue> rows = InputChannels.asIterable(table.scan(scanContext, range));
+            List<KeyValue> page = Lists.newArrayListWithCapacity(PAGE_SIZE);
+            Iterator<KeyValue> it = rows.iterator();
+            while (page.size() < PAGE_SIZE && it.hasNext()) {
+                page.add(it.next());
+            }
+            if (page.size() < PAGE_SIZE && rows.error() != null) {
+                throw rows.error();
+            }
+            return page;
+        } finally {
+            scanContext.cancel();
+            SyncbaseMetrics.record("scanPage", null, start);
+        }
+    }
+}
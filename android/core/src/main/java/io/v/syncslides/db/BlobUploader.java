@@ -0,0 +1,205 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.syncslides.db;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteSource;
+import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.v.v23.context.VContext;
+import io.v.v23.syncbase.nosql.BlobWriter;
+import io.v.v23.syncbase.nosql.Database;
+import io.v.v23.syncbase.nosql.Table;
+import io.v.v23.verror.NoExistException;
+import io.v.v23.verror.VException;
+
+import static io.v.syncslides.db.SyncbaseMetrics.timed;
+import static io.v.v23.VFutures.sync;
+
+/**
+ * Writes blobs to Syncbase on a few threads at once so that an import isn't bound by the
+ * latency of each blob.  Uploads start in the order they were requested.  Blob data is
+ * streamed from its source, so an upload only holds a copy buffer however big the blob is.
+ * At most {@code maxInFlightBytes} of blob data is being written at any time; a blob that
+ * is bigger than that is written on its own.
+ *
+ * Blobs are content-addressed through the BlobIndex table: each source is read once to
+ * compute its SHA-256 digest, and if a blob with the same digest is already stored, or is
+ * being uploaded by this BlobUploader, its ref is reused and nothing is written.
+ *
+ * Used for a single import and then closed.
+ */
+class BlobUploader implements AutoCloseable {
+    private static final String THREAD_PREFIX = "blob-upload-";
+    private static final double BYTES_PER_MB = 1024 * 1024;
+
+    private final VContext mContext;
+    private final Database mDB;
+    private final Table mIndex;
+    private final ListeningExecutorService mExecutor;
+    private final int mMaxInFlightBytes;
+    // One permit per byte being written.
+    private final Semaphore mInFlightBytes;
+    private final Stopwatch mStopwatch = Stopwatch.createUnstarted();
+    // Guarded by this.
+    private final Map<String, ListenableFuture<String>> mUploads = Maps.newHashMap();
+    private long mUploadedBytes;
+    private int mUploadedBlobs;
+    private int mReusedBlobs;
+
+    BlobUploader(VContext context, Database db, int parallelism, long maxInFlightBytes) {
+        Preconditions.checkArgument(parallelism > 0);
+        Preconditions.checkArgument(maxInFlightBytes > 0);
+        mContext = context;
+        mDB = db;
+        mIndex = db.getTable(SyncbaseDB.BLOB_INDEX_TABLE);
+        final AtomicInteger threadNum = new AtomicInteger();
+        mExecutor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(parallelism,
+                runnable -> {
+                    Thread thread = new Thread(
+                            runnable, THREAD_PREFIX + threadNum.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }));
+        mMaxInFlightBytes = Ints.saturatedCast(maxInFlightBytes);
+        mInFlightBytes = new Semaphore(mMaxInFlightBytes, true);
+    }
+
+    /**
+     * Starts writing {@code data} to a new blob, unless a blob with the same contents
+     * already exists.  {@code data} is read twice: once for its digest and once to write it.
+     *
+     * @param name identifies the blob in error messages
+     * @return the ref of the committed blob
+     */
+    ListenableFuture<String> upload(final String name, final ByteSource data) {
+        synchronized (this) {
+            if (!mStopwatch.isRunning()) {
+                mStopwatch.start();
+            }
+        }
+        return mExecutor.submit(() -> {
+            String digest;
+            long size;
+            try {
+                digest = digest(data);
+                size = data.size();
+            } catch (IOException e) {
+                throw new VException("Couldn't read " + name + ": " + e.getMessage());
+            }
+            SettableFuture<String> upload = SettableFuture.create();
+            ListenableFuture<String> existing;
+            synchronized (this) {
+                existing = mUploads.get(digest);
+                if (existing != null) {
+                    mReusedBlobs++;
+                } else {
+                    mUploads.put(digest, upload);
+                }
+            }
+            if (existing != null) {
+                // Its upload is already running, so waiting for it can't deadlock.
+                return sync(existing);
+            }
+            try {
+                String ref = lookup(digest);
+                if (ref != null) {
+                    synchronized (this) {
+                        mReusedBlobs++;
+                    }
+                } else {
+                    int permits = (int) Math.min(size, mMaxInFlightBytes);
+                    mInFlightBytes.acquire(permits);
+                    try {
+                        ref = write(name, data);
+                    } finally {
+                        mInFlightBytes.release(permits);
+                    }
+                    sync(timed("put", SyncbaseDB.BLOB_INDEX_TABLE,
+                            mIndex.put(mContext, digest, ref, String.class)));
+                }
+                upload.set(ref);
+                return ref;
+            } catch (VException | InterruptedException | RuntimeException e) {
+                upload.setException(e);
+                throw e;
+            }
+        });
+    }
+
+    /**
+     * Returns the BlobIndex key for {@code data}.
+     */
+    static String digest(ByteSource data) throws IOException {
+        return BaseEncoding.base16().lowerCase().encode(
+                data.hash(Hashing.sha256()).asBytes());
+    }
+
+    /**
+     * Returns the ref of a stored blob with the given digest or null if there is none.
+     */
+    private String lookup(String digest) throws VException {
+        try {
+            return (String) sync(timed("get", SyncbaseDB.BLOB_INDEX_TABLE,
+                    mIndex.get(mContext, digest, String.class)));
+        } catch (NoExistException e) {
+            return null;
+        }
+    }
+
+    private String write(String name, ByteSource data) throws VException {
+        BlobWriter writer = sync(timed("writeBlob", null, mDB.writeBlob(mContext, null)));
+        long start = System.nanoTime();
+        long size;
+        try (OutputStream out = writer.stream(mContext)) {
+            size = data.copyTo(out);
+        } catch (IOException e) {
+            throw new VException("Couldn't write blob for " + name + ": " + e.getMessage());
+        }
+        SyncbaseMetrics.record("blobStream", null, start);
+        sync(timed("blobCommit", null, writer.commit(mContext)));
+        synchronized (this) {
+            mUploadedBytes += size;
+            mUploadedBlobs++;
+        }
+        return writer.getRef().getValue();
+    }
+
+    /**
+     * Returns a summary of the uploads so far, e.g.
+     * "12 blobs, 3.4 MB in 1200ms (2.83 MB/s), 3 reused".
+     */
+    synchronized String getThroughput() {
+        long millis = mStopwatch.elapsed(TimeUnit.MILLISECONDS);
+        double megabytes = mUploadedBytes / BYTES_PER_MB;
+        double perSecond = millis == 0 ? 0 : megabytes * 1000 / millis;
+        return String.format("%d blobs, %.1f MB in %dms (%.2f MB/s), %d reused",
+                mUploadedBlobs, megabytes, millis, perSecond, mReusedBlobs);
+    }
+
+    /**
+     * Stops the upload threads.  Uploads that haven't finished are cancelled.
+     */
+    @Override
+    public void close() {
+        mExecutor.shutdownNow();
+    }
+}
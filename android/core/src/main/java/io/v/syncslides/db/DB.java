@@ -0,0 +1,148 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.syncslides.db;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.io.File;
+import java.util.List;
+
+import io.v.syncslides.InitException;
+import io.v.syncslides.model.Deck;
+import io.v.syncslides.model.DynamicList;
+import io.v.syncslides.model.Session;
+import io.v.syncslides.model.Slide;
+import io.v.syncslides.model.SlideSource;
+import io.v.v23.context.VContext;
+import io.v.v23.security.Blessings;
+import io.v.v23.verror.VException;
+
+/**
+ * Provides high-level methods for getting and setting the state of SyncSlides.
+ * It is an interface instead of a concrete class to make testing easier.
+ */
+public interface DB {
+    class Singleton {
+        private static volatile DB instance;
+
+        public static DB get() {
+            DB result = instance;
+            if (result == null) {
+                synchronized (Singleton.class) {
+                    result = instance;
+                    if (result == null) {
+                        instance = result = new SyncbaseDB();
+                    }
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Starts initialization in the background.  Lists returned by the DB can be used
+     * right away; they fill in once the database is ready.
+     *
+     * @return completes when the database is ready, or fails with an
+     * {@link InitException}.  Once initialization has started, calling init
+     * again returns the same future.
+     *
+     * @param context   the context to run Syncbase in
+     * @param blessings the user's blessings, or null if the user has none yet
+     * @param filesDir  the directory to keep the database and list snapshots in
+     */
+    ListenableFuture<Void> init(VContext context, Blessings blessings, File filesDir);
+
+    /**
+     * Creates a new session in the database for a local viewing of a deck.  The user
+     * can later turn this into a live presentation.
+     *
+     * @param deckId the ID of the deck that the user is viewing
+     * @return the unique ID for the session to later be passed to {@link #getSession(string)}.
+     */
+    String createSession(String deckId) throws VException;
+
+    /**
+     * Returns the Session for the given ID.  This method is synchronous because
+     * it fetches a small amount of data and therefore it can complete quickly.
+     * Additionally, very little UI can be rendered without the information
+     * contained in the Session.
+     */
+    Session getSession(String sessionId) throws VException;
+
+    /**
+     * Returns a dynamically updating list of decks that are visible to the user.
+     */
+    DynamicList<Deck> getDecks();
+
+    /**
+     * Asynchronously imports the slide deck along with its slides.
+     *
+     * @param deck     deck to import
+     * @param slides   slides belonging to the above deck
+     * @return allows the client to detect when the import is complete
+     */
+    ListenableFuture<Void> importDeck(Deck deck, Slide[] slides);
+
+    /**
+     * Asynchronously imports the slide deck along with its slides, reading each slide's
+     * images only while it is being stored.  Memory use depends on the import window,
+     * not on the size of the deck.
+     *
+     * @param deck     deck to import
+     * @param slides   slides belonging to the above deck, in order
+     * @return allows the client to detect when the import is complete
+     */
+    ListenableFuture<Void> importDeck(Deck deck, List<? extends SlideSource> slides);
+
+    /**
+     * Asynchronously deletes the deck along with its slides, notes and presentations.
+     *
+     * @param deckId the ID of the deck to delete
+     * @return allows the client to detect when the deletion is complete
+     */
+    ListenableFuture<Void> deleteDeck(String deckId);
+
+    /**
+     * Asynchronously adds a slide to a deck.  Only the new slide's rows are written; the
+     * other slides keep their IDs.  Slide numbers stored by sessions and presentations of
+     * the deck are updated in the same batch, so they keep showing the same slides.
+     *
+     * @param deckId      the ID of the deck to add the slide to
+     * @param prevSlideId the ID of the slide to put the new one after, or null for the start
+     * @param nextSlideId the ID of the slide to put the new one before, or null for the end
+     * @param slide       the slide to add
+     * @return the ID of the new slide
+     */
+    ListenableFuture<String> insertSlide(String deckId, String prevSlideId, String nextSlideId,
+                                         Slide slide);
+
+    /**
+     * Asynchronously moves a slide, along with the user's notes for it, to another place in
+     * its deck.  Only the moved slide's rows are written, along with any slide numbers
+     * that have to change, as for {@link #insertSlide}.
+     *
+     * @param deckId      the ID of the slide's deck
+     * @param slideId     the ID of the slide to move
+     * @param prevSlideId the ID of the slide to put it after, or null for the start
+     * @param nextSlideId the ID of the slide to put it before, or null for the end
+     * @return the new ID of the slide
+     */
+    ListenableFuture<String> moveSlide(String deckId, String slideId, String prevSlideId,
+                                       String nextSlideId);
+
+    /**
+     * Asynchronously deletes a slide and the user's notes for it.  Sessions that showed it
+     * show the next slide instead.
+     *
+     * @param deckId  the ID of the slide's deck
+     * @param slideId the ID of the slide to delete
+     * @return allows the client to detect when the deletion is complete
+     */
+    ListenableFuture<Void> deleteSlide(String deckId, String slideId);
+
+    // TODO(kash): Remove this when moving advertisement functionality into Session.
+    Deck getDeck(String deckId) throws VException;
+}
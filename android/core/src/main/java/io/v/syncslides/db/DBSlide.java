@@ -4,9 +4,6 @@
 
 package io.v.syncslides.db;
 
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-
 import io.v.syncslides.model.Slide;
 
 /**
@@ -25,15 +22,13 @@ class DBSlide implements Slide {
         mNotes = notes;
     }
 
-    @Override
-    public String getId() {
-        return mId;
+    VSlide getVSlide() {
+        return mVSlide;
     }
 
     @Override
-    public Bitmap getThumb() {
-        byte[] thumbnail = mVSlide.getThumbnail();
-        return BitmapFactory.decodeByteArray(thumbnail, 0 /* offset */, thumbnail.length);
+    public String getId() {
+        return mId;
     }
 
     @Override
@@ -41,13 +36,6 @@ class DBSlide implements Slide {
         return mVSlide.getThumbnail();
     }
 
-    @Override
-    public Bitmap getImage() {
-        // TODO(kash): I think I want to change this API to return a future so the UI is
-        // not blocked on loading the image.
-        throw new RuntimeException("Implement me");
-    }
-
     @Override
     public byte[] getImageData() {
         // TODO(kash): I think I want to change this API to return a future so the UI is
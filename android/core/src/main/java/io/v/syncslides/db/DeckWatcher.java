@@ -0,0 +1,204 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.syncslides.db;
+
+import com.google.common.collect.Lists;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import io.v.syncslides.lib.Log;
+import io.v.syncslides.model.Deck;
+import io.v.syncslides.model.DeckImpl;
+import io.v.v23.InputChannels;
+import io.v.v23.VIterable;
+import io.v.v23.context.CancelableVContext;
+import io.v.v23.context.VContext;
+import io.v.v23.services.watch.ResumeMarker;
+import io.v.v23.syncbase.nosql.BatchDatabase;
+import io.v.v23.syncbase.nosql.ChangeType;
+import io.v.v23.syncbase.nosql.Database;
+import io.v.v23.syncbase.nosql.DatabaseCore;
+import io.v.v23.syncbase.nosql.KeyValue;
+import io.v.v23.syncbase.nosql.RowRange;
+import io.v.v23.syncbase.nosql.Table;
+import io.v.v23.vdl.VdlAny;
+import io.v.v23.verror.VException;
+import io.v.v23.vom.VomUtil;
+
+import static io.v.syncslides.db.SyncbaseMetrics.timed;
+import static io.v.v23.VFutures.sync;
+
+/**
+ * Watches all of the decks in syncbase for changes.  Decks are sorted by their ID (which
+ * is a random number).  TODO(kash): Sort by something more useful.
+ *
+ * The watcher reads and watches only the DeckIndex table, so importing or syncing slides
+ * doesn't wake it up.
+ */
+class DeckWatcher implements Watcher<Deck>, ListSnapshot.Codec<Deck> {
+
+    private static final String TAG = "DeckWatcher";
+    private static final String INDEX = SyncbaseDB.DECK_INDEX_TABLE;
+    private final SyncbaseDB mSyncbase;
+
+    DeckWatcher(SyncbaseDB syncbase) {
+        mSyncbase = syncbase;
+    }
+
+    public void watch(VContext context, Map<String, ResumeMarker> resumeMarkers,
+                      Listener<Deck> listener) {
+        WatchHub.Subscription changes = null;
+        try {
+            // The list may already be showing a snapshot, so it's fine to wait here
+            // for syncbase to start.
+            Database db = mSyncbase.awaitDatabase();
+            WatchHub hub = mSyncbase.getWatchHub();
+            if (resumeMarkers != null && resumeMarkers.containsKey(INDEX)) {
+                changes = hub.resume(INDEX, "", resumeMarkers.get(INDEX));
+            }
+            if (changes != null) {
+                listener.onResumed();
+            } else {
+                // Subscribe before reading so that no change can slip in between.
+                changes = hub.subscribe(INDEX, "");
+                fetchInitialState(context, db, listener);
+                listener.onInitialStateLoaded();
+            }
+            listener.onCheckpoint(INDEX, changes.getStartMarker(INDEX));
+
+            for (WatchHub.Change change : changes) {
+                final String key = change.getRowName();
+                Log.d(TAG, "Processing change to deck: " + key);
+                if (change.getChangeType().equals(ChangeType.PUT_CHANGE)) {
+                    // New deck or change to an existing deck.
+                    VDeck vDeck = null;
+                    try {
+                        vDeck = (VDeck) change.decode(VDeck.class);
+                    } catch (VException e) {
+                        Log.e(TAG, "Couldn't decode deck: " + e.toString());
+                        continue;
+                    }
+                    final Deck deck = new DeckImpl(
+                            vDeck.getTitle(), vDeck.getThumbnail(), key);
+                    listener.onPut(deck);
+                } else {  // ChangeType.DELETE_CHANGE
+                    listener.onDelete(new DeckImpl(null, null, key));
+                }
+                listener.onCheckpoint(INDEX, change.getResumeMarker());
+            }
+            if (changes.error() != null) {
+                throw changes.error();
+            }
+            Log.d(TAG, "Deck change thread exiting");
+        } catch (Exception e) {
+            listener.onError(e);
+        } finally {
+            if (changes != null) {
+                changes.close();
+            }
+        }
+    }
+
+    private void fetchInitialState(VContext context, Database db, Listener<Deck> listener)
+            throws VException {
+        BatchDatabase batch = sync(timed("beginBatch", null, db.beginBatch(context, null)));
+        for (Deck deck : scanIndex(context, batch)) {
+            Log.i(TAG, "Fetched deck " + deck.getId());
+            listener.onPut(deck);
+        }
+    }
+
+    /**
+     * Returns all of the decks in the deck index, in key order.
+     */
+    static List<Deck> scanIndex(VContext context, DatabaseCore db) throws VException {
+        Table index = db.getTable(INDEX);
+        List<Deck> result = Lists.newArrayList();
+        long start = System.nanoTime();
+        VIterable<KeyValue> rows = InputChannels.asIterable(
+                index.scan(context, RowRange.prefix("")));
+        for (KeyValue row : rows) {
+            VDeck vDeck = (VDeck) VomUtil.decode(row.getValue(), VDeck.class);
+            result.add(new DeckImpl(vDeck.getTitle(), vDeck.getThumbnail(), row.getKey()));
+        }
+        if (rows.error() != null) {
+            throw rows.error();
+        }
+        SyncbaseMetrics.record("scan", INDEX, start);
+        return result;
+    }
+
+    /**
+     * Returns all of the decks in the Decks table, in key order, without reading their
+     * slides.  Used to fill in the deck index.
+     *
+     * The deck and slide rows share the Decks table, with each deck's slides right
+     * after it.  This is a skip scan: each scan reads the next deck row, and the next
+     * scan starts after that deck's slides.  Deck IDs are UUIDs, so no deck ID is a
+     * prefix of another and the next deck can't be between a deck and its slides.
+     */
+    static List<Deck> scanDecks(VContext context, DatabaseCore db) throws VException {
+        Table decks = db.getTable(SyncbaseDB.DECKS_TABLE);
+        List<Deck> result = Lists.newArrayList();
+        String start = "";
+        while (true) {
+            KeyValue row = firstRow(context, decks, RowRange.range(start, ""));
+            if (row == null) {
+                return result;
+            }
+            String deckId = SlideKeys.deckId(row.getKey());
+            if (SlideKeys.kind(row.getKey()) == SlideKeys.DECK) {
+                VDeck vDeck = (VDeck) VomUtil.decode(row.getValue(), VDeck.class);
+                result.add(new DeckImpl(vDeck.getTitle(), vDeck.getThumbnail(), deckId));
+            }
+            // Skip everything under "<deckId>/".  '0' is the character after '/'.
+            start = deckId + "0";
+        }
+    }
+
+    /**
+     * Returns the first row in {@code range} or null if there is none.
+     */
+    private static KeyValue firstRow(VContext context, Table table, RowRange range)
+            throws VException {
+        // Cancel the scan as soon as the row arrives so that Syncbase doesn't keep
+        // reading rows that are going to be skipped.
+        CancelableVContext scanContext = context.withCancel();
+        long start = System.nanoTime();
+        try {
+            VIterable<KeyValue> rows = InputChannels.asIterable(
+                    table.scan(scanContext, range));
+            Iterator<KeyValue> it = rows.iterator();
+            if (it.hasNext()) {
+                return it.next();
+            }
+            if (rows.error() != null) {
+                throw rows.error();
+            }
+            return null;
+        } finally {
+            scanContext.cancel();
+            SyncbaseMetrics.record("firstRow", SyncbaseDB.DECKS_TABLE, start);
+        }
+    }
+
+    @Override
+    public VSnapshotRow encode(Deck deck) {
+        VDeck vDeck = new VDeck(deck.getTitle(), deck.getThumbData());
+        return new VSnapshotRow(deck.getId(), new VdlAny(VDeck.class, vDeck), "");
+    }
+
+    @Override
+    public Deck decode(VSnapshotRow row) {
+        VDeck vDeck = (VDeck) row.getValue().getElem();
+        return new DeckImpl(vDeck.getTitle(), vDeck.getThumbnail(), row.getKey());
+    }
+
+    public int compare(Deck lhs, Deck rhs) {
+        return lhs.getId().compareTo(rhs.getId());
+    }
+}
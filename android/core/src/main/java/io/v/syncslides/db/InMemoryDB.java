@@ -0,0 +1,538 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.syncslides.db;
+
+import com.google.common.base.Function;
+import com.google.common.base.Supplier;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Longs;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import io.v.syncslides.lib.Dispatcher;
+import io.v.syncslides.lib.Dispatchers;
+import io.v.syncslides.model.Deck;
+import io.v.syncslides.model.DeckImpl;
+import io.v.syncslides.model.DynamicList;
+import io.v.syncslides.model.Session;
+import io.v.syncslides.model.Slide;
+import io.v.syncslides.model.SlideImpl;
+import io.v.syncslides.model.SlideSource;
+import io.v.v23.context.VContext;
+import io.v.v23.security.Blessings;
+import io.v.v23.services.watch.ResumeMarker;
+import io.v.v23.verror.VException;
+
+/**
+ * A DB that keeps everything in memory.  It needs neither a Syncbase server nor
+ * blessings, so it can be used to load test the UI layer and in JVM tests.
+ *
+ * Decks and slides are kept in ConcurrentSkipListMaps, keyed the same way as the Decks
+ * table.  Every write is also appended to a change log, which feeds the lists returned by
+ * {@link #getDecks} and {@link Session#getSlides}.  The lists are WatchedLists, like
+ * SyncbaseDB's, and get the same notifications: the initial state, then changes with
+ * resume markers.  A list that is restarted within the last {@value #HISTORY_SIZE}
+ * changes resumes instead of reloading.
+ */
+public class InMemoryDB implements DB {
+    private static final String DECKS = "decks";
+    private static final String SLIDES = "slides";
+    private static final int HISTORY_SIZE = 10000;
+
+    private final Supplier<Dispatcher> mDispatchers;
+    private final ChangeLog mLog = new ChangeLog();
+    private final Map<String, InMemorySession> mSessions = Maps.newConcurrentMap();
+    // Guarded by this.
+    private WatchedList<Deck> mDeckList;
+    private final Map<String, WatchedList<Slide>> mSlideLists = Maps.newHashMap();
+
+    public InMemoryDB() {
+        this(Dispatchers::mainThread);
+    }
+
+    /**
+     * @param dispatchers makes the Dispatchers that list and slide number listeners are
+     *                    notified on, one per list and session
+     */
+    public InMemoryDB(Supplier<Dispatcher> dispatchers) {
+        mDispatchers = dispatchers;
+    }
+
+    @Override
+    public ListenableFuture<Void> init(VContext context, Blessings blessings, File filesDir) {
+        return Futures.immediateFuture(null);
+    }
+
+    @Override
+    public String createSession(String deckId) {
+        String id = UUID.randomUUID().toString();
+        mSessions.put(id, new InMemorySession(id, deckId));
+        return id;
+    }
+
+    @Override
+    public Session getSession(String sessionId) throws VException {
+        Session session = mSessions.get(sessionId);
+        if (session == null) {
+            throw new VException("No such session: " + sessionId);
+        }
+        return session;
+    }
+
+    @Override
+    public synchronized DynamicList<Deck> getDecks() {
+        if (mDeckList == null) {
+            mDeckList = new WatchedList<>(null,
+                    new LogWatcher<Deck>(DECKS, "", id -> new DeckImpl(null, null, id)) {
+                        @Override
+                        public int compare(Deck lhs, Deck rhs) {
+                            return lhs.getId().compareTo(rhs.getId());
+                        }
+                    },
+                    null, mDispatchers.get());
+        }
+        return mDeckList;
+    }
+
+    private synchronized DynamicList<Slide> getSlides(String deckId) {
+        WatchedList<Slide> slides = mSlideLists.get(deckId);
+        if (slides == null) {
+            slides = new WatchedList<>(null,
+                    new LogWatcher<Slide>(SLIDES, SlideKeys.prefix(deckId),
+                            id -> new SlideImpl(id, null, null, null)) {
+                        @Override
+                        public int compare(Slide lhs, Slide rhs) {
+                            return lhs.getId().compareTo(rhs.getId());
+                        }
+                    },
+                    null, mDispatchers.get());
+            mSlideLists.put(deckId, slides);
+        }
+        return slides;
+    }
+
+    /**
+     * Stores the deck and its slides.  The deck is written after its slides, so the deck
+     * list never shows an incomplete deck.
+     */
+    @Override
+    public ListenableFuture<Void> importDeck(Deck deck, Slide[] slides) {
+        String deckId = deck.getId();
+        for (int i = 0; i < slides.length; i++) {
+            String key = SlideKeys.encode(deckId, i);
+            mLog.put(SLIDES, key, new SlideImpl(key, slides[i].getThumbData(),
+                    slides[i].getImageData(), slides[i].getNotes()));
+        }
+        mLog.put(DECKS, deckId, new DeckImpl(deck.getTitle(), deck.getThumbData(), deckId));
+        return Futures.immediateFuture(null);
+    }
+
+    /**
+     * Reads all of the slides into memory and stores them like {@link #importDeck(Deck,
+     * Slide[])}.
+     */
+    @Override
+    public ListenableFuture<Void> importDeck(Deck deck, List<? extends SlideSource> slides) {
+        Slide[] loaded = new Slide[slides.size()];
+        for (int i = 0; i < loaded.length; i++) {
+            SlideSource slide = slides.get(i);
+            try {
+                loaded[i] = new SlideImpl(null, slide.getThumb().read(), slide.getImage().read(),
+                        slide.getNotes());
+            } catch (IOException e) {
+                return Futures.immediateFailedFuture(e);
+            }
+        }
+        return importDeck(deck, loaded);
+    }
+
+    @Override
+    public ListenableFuture<Void> deleteDeck(String deckId) {
+        mLog.delete(DECKS, deckId);
+        mLog.deletePrefix(SLIDES, deckId + "/");
+        return Futures.immediateFuture(null);
+    }
+
+    @Override
+    public ListenableFuture<String> insertSlide(String deckId, String prevSlideId,
+                                                String nextSlideId, Slide slide) {
+        String key = SlideKeys.between(deckId, prevSlideId, nextSlideId);
+        mLog.put(SLIDES, key, new SlideImpl(key, slide.getThumbData(), slide.getImageData(),
+                slide.getNotes()));
+        renumberSessions(deckId, SlideNumbers.NONE, slidePosition(deckId, key));
+        return Futures.immediateFuture(key);
+    }
+
+    @Override
+    public ListenableFuture<String> moveSlide(String deckId, String slideId, String prevSlideId,
+                                              String nextSlideId) {
+        Slide slide = (Slide) mLog.get(SLIDES, slideId);
+        if (slide == null) {
+            return Futures.immediateFailedFuture(new VException("No such slide: " + slideId));
+        }
+        String key = SlideKeys.between(deckId, prevSlideId, nextSlideId);
+        int from = slidePosition(deckId, slideId);
+        mLog.put(SLIDES, key, new SlideImpl(key, slide.getThumbData(), slide.getImageData(),
+                slide.getNotes()));
+        mLog.delete(SLIDES, slideId);
+        renumberSessions(deckId, from, slidePosition(deckId, key));
+        return Futures.immediateFuture(key);
+    }
+
+    @Override
+    public ListenableFuture<Void> deleteSlide(String deckId, String slideId) {
+        int at = slidePosition(deckId, slideId);
+        if (mLog.get(SLIDES, slideId) != null) {
+            mLog.delete(SLIDES, slideId);
+            renumberSessions(deckId, at, SlideNumbers.NONE);
+        }
+        return Futures.immediateFuture(null);
+    }
+
+    private int slidePosition(String deckId, String key) {
+        return mLog.position(SLIDES, SlideKeys.prefix(deckId), key);
+    }
+
+    /**
+     * Keeps the slide numbers of the deck's sessions pointing at the same slides.  See
+     * {@link SlideNumbers#renumber}.
+     */
+    private void renumberSessions(String deckId, int removedAt, int insertedAt) {
+        int count = mLog.count(SLIDES, SlideKeys.prefix(deckId));
+        for (InMemorySession session : mSessions.values()) {
+            if (!session.getDeckId().equals(deckId)) {
+                continue;
+            }
+            int slideNum = SlideNumbers.renumber(session.mSlideNum, removedAt, insertedAt,
+                    count);
+            if (slideNum != session.mSlideNum) {
+                session.setLocalSlideNum(slideNum);
+            }
+        }
+    }
+
+    @Override
+    public Deck getDeck(String deckId) throws VException {
+        Deck deck = (Deck) mLog.get(DECKS, deckId);
+        if (deck == null) {
+            throw new VException("No such deck: " + deckId);
+        }
+        return deck;
+    }
+
+    /**
+     * A write to the change log.  The value is null for a delete.
+     */
+    private static class Change {
+        final long mSeq;
+        final String mTable;
+        final String mKey;
+        final Object mValue;
+
+        Change(long seq, String table, String key, Object value) {
+            mSeq = seq;
+            mTable = table;
+            mKey = key;
+            mValue = value;
+        }
+    }
+
+    /**
+     * A LogWatcher's view of the change log: either the initial state or the changes
+     * since its resume marker, followed by all later changes.
+     */
+    private static class Subscription {
+        final String mTable;
+        final String mPrefix;
+        final BlockingQueue<Change> mChanges = new LinkedBlockingQueue<>();
+        // The rows as of mStartMarker, or null if the subscription resumed.
+        List<Object> mInitialState;
+        ResumeMarker mStartMarker;
+
+        Subscription(String table, String prefix) {
+            mTable = table;
+            mPrefix = prefix;
+        }
+
+        boolean matches(Change change) {
+            return change.mTable.equals(mTable) && change.mKey.startsWith(mPrefix);
+        }
+    }
+
+    /**
+     * The tables, and a log of the recent writes to them.  Writes are serialized, so
+     * every subscription sees them in the same order.
+     */
+    private static class ChangeLog {
+        private final Map<String, ConcurrentSkipListMap<String, Object>> mTables =
+                Maps.newConcurrentMap();
+        // Guarded by this.
+        private final ArrayDeque<Change> mHistory = new ArrayDeque<>();
+        private final List<Subscription> mSubscriptions = Lists.newArrayList();
+        private long mSeq;
+
+        Object get(String table, String key) {
+            return table(table).get(key);
+        }
+
+        synchronized void put(String table, String key, Object value) {
+            table(table).put(key, value);
+            append(table, key, value);
+        }
+
+        synchronized void delete(String table, String key) {
+            if (table(table).remove(key) != null) {
+                append(table, key, null);
+            }
+        }
+
+        /**
+         * Returns the key of the {@code n}th row in {@code table} with a key that starts
+         * with {@code prefix}, or null if there are fewer rows.
+         */
+        String keyAt(String table, String prefix, int n) {
+            for (String key : prefixMap(table(table), prefix).keySet()) {
+                if (n-- == 0) {
+                    return key;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Returns the number of rows in {@code table} with a key that starts with
+         * {@code prefix} and sorts before {@code key}.
+         */
+        int position(String table, String prefix, String key) {
+            return prefixMap(table(table), prefix).headMap(key).size();
+        }
+
+        /**
+         * Returns the number of rows in {@code table} with a key that starts with
+         * {@code prefix}.
+         */
+        int count(String table, String prefix) {
+            return prefixMap(table(table), prefix).size();
+        }
+
+        synchronized void deletePrefix(String table, String prefix) {
+            NavigableMap<String, Object> rows = prefixMap(table(table), prefix);
+            for (String key : Lists.newArrayList(rows.keySet())) {
+                rows.remove(key);
+                append(table, key, null);
+            }
+        }
+
+        /**
+         * Starts a subscription to the rows in {@code table} with keys that start with
+         * {@code prefix}.  If {@code since} is still in the history, the subscription
+         * starts with the changes after it.  Otherwise it starts with the current rows.
+         */
+        synchronized Subscription subscribe(String table, String prefix, ResumeMarker since) {
+            Subscription subscription = new Subscription(table, prefix);
+            List<Change> replay = since == null ? null : changesSince(since);
+            if (replay != null) {
+                for (Change change : replay) {
+                    if (subscription.matches(change)) {
+                        subscription.mChanges.add(change);
+                    }
+                }
+            } else {
+                subscription.mInitialState =
+                        Lists.newArrayList(prefixMap(table(table), prefix).values());
+            }
+            subscription.mStartMarker = marker(mSeq);
+            mSubscriptions.add(subscription);
+            return subscription;
+        }
+
+        synchronized void unsubscribe(Subscription subscription) {
+            mSubscriptions.remove(subscription);
+        }
+
+        private List<Change> changesSince(ResumeMarker since) {
+            long seq = Longs.fromByteArray(since.getValue());
+            long oldest = mHistory.isEmpty() ? mSeq + 1 : mHistory.peekFirst().mSeq;
+            if (seq < oldest - 1 || seq > mSeq) {
+                return null;
+            }
+            List<Change> result = Lists.newArrayList();
+            for (Change change : mHistory) {
+                if (change.mSeq > seq) {
+                    result.add(change);
+                }
+            }
+            return result;
+        }
+
+        private void append(String table, String key, Object value) {
+            Change change = new Change(++mSeq, table, key, value);
+            mHistory.addLast(change);
+            if (mHistory.size() > HISTORY_SIZE) {
+                mHistory.removeFirst();
+            }
+            for (Subscription subscription : mSubscriptions) {
+                if (subscription.matches(change)) {
+                    subscription.mChanges.add(change);
+                }
+            }
+        }
+
+        private ConcurrentSkipListMap<String, Object> table(String name) {
+            ConcurrentSkipListMap<String, Object> table = mTables.get(name);
+            if (table == null) {
+                mTables.putIfAbsent(name, new ConcurrentSkipListMap<>());
+                table = mTables.get(name);
+            }
+            return table;
+        }
+
+        private static NavigableMap<String, Object> prefixMap(
+                ConcurrentSkipListMap<String, Object> table, String prefix) {
+            return prefix.isEmpty() ? table : table.subMap(prefix, prefix + Character.MAX_VALUE);
+        }
+
+        static ResumeMarker marker(long seq) {
+            return new ResumeMarker(Longs.toByteArray(seq));
+        }
+    }
+
+    /**
+     * Watches one table of the change log for a WatchedList.  Stops when its thread is
+     * interrupted.
+     */
+    private abstract class LogWatcher<E> implements Watcher<E> {
+        private final String mTable;
+        private final String mPrefix;
+        private final Function<String, E> mDeleted;
+
+        /**
+         * @param deleted makes an element that compares equal to the deleted one with
+         *                the given key
+         */
+        LogWatcher(String table, String prefix, Function<String, E> deleted) {
+            mTable = table;
+            mPrefix = prefix;
+            mDeleted = deleted;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void watch(VContext context, Map<String, ResumeMarker> resumeMarkers,
+                          Listener<E> listener) {
+            Subscription subscription = mLog.subscribe(mTable, mPrefix,
+                    resumeMarkers == null ? null : resumeMarkers.get(mTable));
+            try {
+                if (subscription.mInitialState == null) {
+                    listener.onResumed();
+                } else {
+                    for (Object row : subscription.mInitialState) {
+                        listener.onPut((E) row);
+                    }
+                    listener.onInitialStateLoaded();
+                }
+                listener.onCheckpoint(mTable, subscription.mStartMarker);
+                while (true) {
+                    Change change = subscription.mChanges.take();
+                    if (change.mValue == null) {
+                        listener.onDelete(mDeleted.apply(change.mKey));
+                    } else {
+                        listener.onPut((E) change.mValue);
+                    }
+                    listener.onCheckpoint(mTable, ChangeLog.marker(change.mSeq));
+                }
+            } catch (InterruptedException e) {
+                // Stopped by the WatchedList.
+                Thread.currentThread().interrupt();
+            } finally {
+                mLog.unsubscribe(subscription);
+            }
+        }
+    }
+
+    private class InMemorySession implements Session {
+        private final String mId;
+        private final String mDeckId;
+        private final Dispatcher mDispatcher = mDispatchers.get();
+        private final List<SlideNumberListener> mListeners = Lists.newCopyOnWriteArrayList();
+        private volatile int mSlideNum;
+
+        InMemorySession(String id, String deckId) {
+            mId = id;
+            mDeckId = deckId;
+        }
+
+        @Override
+        public String getId() {
+            return mId;
+        }
+
+        @Override
+        public String getDeckId() {
+            return mDeckId;
+        }
+
+        @Override
+        public String getPresentationId() {
+            return null;
+        }
+
+        @Override
+        public void setLocalSlideNum(final int slideNum) {
+            mSlideNum = slideNum;
+            mDispatcher.post(() -> {
+                for (SlideNumberListener listener : mListeners) {
+                    listener.onChange(slideNum);
+                }
+            });
+        }
+
+        @Override
+        public void addSlideNumberListener(final SlideNumberListener listener) {
+            mListeners.add(listener);
+            final int slideNum = mSlideNum;
+            mDispatcher.post(() -> listener.onChange(slideNum));
+        }
+
+        @Override
+        public void removeSlideNumberListener(SlideNumberListener listener) {
+            mListeners.remove(listener);
+        }
+
+        @Override
+        public DynamicList<Slide> getSlides() {
+            return InMemoryDB.this.getSlides(mDeckId);
+        }
+
+        @Override
+        public void setNotes(int slideNum, String notes) throws VException {
+            // Slides are numbered by their position in the deck, which is key order.
+            String key = mLog.keyAt(SLIDES, SlideKeys.prefix(mDeckId), slideNum);
+            Slide slide = key == null ? null : (Slide) mLog.get(SLIDES, key);
+            if (slide == null) {
+                throw new VException("No such slide: " + slideNum);
+            }
+            mLog.put(SLIDES, key,
+                    new SlideImpl(key, slide.getThumbData(), slide.getImageData(), notes));
+        }
+
+        @Override
+        public void flush() {
+            // Writes are applied immediately.
+        }
+    }
+}
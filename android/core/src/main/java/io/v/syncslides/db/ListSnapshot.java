@@ -0,0 +1,183 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.syncslides.db;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import io.v.syncslides.lib.Log;
+import io.v.v23.services.watch.ResumeMarker;
+import io.v.v23.verror.VException;
+import io.v.v23.vom.VomUtil;
+
+/**
+ * Keeps a copy of a WatchedList's data in a local file, together with the resume markers
+ * that the data is up to date with.  After a cold start, the list can be shown from the
+ * file while its Watcher catches up from the markers.
+ *
+ * The file is only a cache.  If it is missing or can't be read, the Watcher simply
+ * loads everything from Syncbase.
+ */
+class ListSnapshot<E> {
+    private static final String TAG = "ListSnapshot";
+    /**
+     * All snapshots are written by one thread, in the order they were saved.
+     */
+    private static final ExecutorService sWriter = Executors.newSingleThreadExecutor(
+            runnable -> {
+                Thread thread = new Thread(runnable, TAG);
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    /**
+     * Converts elements to and from the rows of a snapshot.
+     */
+    interface Codec<E> {
+        /**
+         * Returns the row for {@code elem} or null if it shouldn't be kept.
+         */
+        VSnapshotRow encode(E elem);
+
+        E decode(VSnapshotRow row) throws VException;
+    }
+
+    /**
+     * The contents of a snapshot file.
+     */
+    static class Contents<E> {
+        private final List<E> mElems;
+        private final Map<String, ResumeMarker> mResumeMarkers;
+
+        Contents(List<E> elems, Map<String, ResumeMarker> resumeMarkers) {
+            mElems = elems;
+            mResumeMarkers = resumeMarkers;
+        }
+
+        List<E> getElems() {
+            return mElems;
+        }
+
+        Map<String, ResumeMarker> getResumeMarkers() {
+            return mResumeMarkers;
+        }
+    }
+
+    private final File mFile;
+    private final Codec<E> mCodec;
+    // Set by delete().  Saves after it are dropped.
+    private volatile boolean mDeleted;
+
+    ListSnapshot(File file, Codec<E> codec) {
+        mFile = file;
+        mCodec = codec;
+    }
+
+    /**
+     * Reads the snapshot.  Blocks, so don't call it on the main thread.
+     *
+     * @return the contents or null if there is no usable snapshot
+     */
+    Contents<E> load() {
+        if (!mFile.exists()) {
+            return null;
+        }
+        try (InputStream in = new FileInputStream(mFile)) {
+            VListSnapshot snapshot = (VListSnapshot) VomUtil.decode(
+                    ByteStreams.toByteArray(in), VListSnapshot.class);
+            Map<String, ResumeMarker> markers = Maps.newHashMap();
+            for (Map.Entry<String, byte[]> entry : snapshot.getResumeMarkers().entrySet()) {
+                markers.put(entry.getKey(),
+                        (ResumeMarker) VomUtil.decode(entry.getValue(), ResumeMarker.class));
+            }
+            List<E> elems = Lists.newArrayListWithCapacity(snapshot.getRows().size());
+            for (VSnapshotRow row : snapshot.getRows()) {
+                elems.add(mCodec.decode(row));
+            }
+            return new Contents<>(elems, ImmutableMap.copyOf(markers));
+        } catch (IOException | VException | RuntimeException e) {
+            Log.w(TAG, "Discarding unreadable snapshot " + mFile + ": " + e);
+            mFile.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Replaces the snapshot in a background thread.  {@code elems} and
+     * {@code resumeMarkers} must not be modified afterwards.
+     */
+    void save(final List<E> elems, final Map<String, ResumeMarker> resumeMarkers) {
+        sWriter.execute(() -> {
+            if (mDeleted) {
+                return;
+            }
+            try {
+                write(elems, resumeMarkers);
+            } catch (IOException | VException e) {
+                Log.w(TAG, "Couldn't write snapshot " + mFile + ": " + e);
+            }
+        });
+    }
+
+    /**
+     * Deletes the snapshot in a background thread, after any saves that are already
+     * queued.  Later saves are ignored, so a list that is still open can't bring it back.
+     */
+    void delete() {
+        mDeleted = true;
+        clear();
+    }
+
+    /**
+     * Like {@link #delete}, but later saves write a new snapshot.
+     */
+    void clear() {
+        sWriter.execute(() -> {
+            if (mFile.exists() && !mFile.delete()) {
+                Log.w(TAG, "Couldn't delete snapshot " + mFile);
+            }
+        });
+    }
+
+    private void write(List<E> elems, Map<String, ResumeMarker> resumeMarkers)
+            throws IOException, VException {
+        Map<String, byte[]> markers = Maps.newHashMap();
+        for (Map.Entry<String, ResumeMarker> entry : resumeMarkers.entrySet()) {
+            markers.put(entry.getKey(), VomUtil.encode(entry.getValue(), ResumeMarker.class));
+        }
+        List<VSnapshotRow> rows = Lists.newArrayListWithCapacity(elems.size());
+        for (E elem : elems) {
+            VSnapshotRow row = mCodec.encode(elem);
+            if (row != null) {
+                rows.add(row);
+            }
+        }
+        byte[] data = VomUtil.encode(new VListSnapshot(markers, rows), VListSnapshot.class);
+        // Write a new file and rename it over the old one so that a crash can't leave
+        // a half-written snapshot behind.
+        mFile.getParentFile().mkdirs();
+        File tmp = new File(mFile.getPath() + ".tmp");
+        try (OutputStream out = new FileOutputStream(tmp)) {
+            out.write(data);
+        }
+        if (!tmp.renameTo(mFile)) {
+            tmp.delete();
+            throw new IOException("Couldn't rename " + tmp + " to " + mFile);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.syncslides.db;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+
+import org.joda.time.Duration;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import io.v.syncslides.lib.Dispatcher;
+import io.v.syncslides.lib.Dispatchers;
+import io.v.syncslides.lib.Log;
+import io.v.v23.context.CancelableVContext;
+import io.v.v23.context.VContext;
+import io.v.v23.syncbase.nosql.Database;
+import io.v.v23.syncbase.nosql.Table;
+
+import static io.v.syncslides.db.SyncbaseMetrics.timed;
+
+/**
+ * Writes slide notes to the Notes table in the background.  Writes are debounced: a write
+ * starts once the notes have been left alone for {@link #DEBOUNCE_MS}, and repeated edits
+ * of the same slide's notes before then collapse into one write of the latest text.
+ *
+ * All methods must be called on the main thread.
+ */
+class NotesWriter {
+    private static final String TAG = "NotesWriter";
+    private static final long DEBOUNCE_MS = 1000;
+    private static final long WRITE_TIMEOUT_MS = 5000;
+
+    private final VContext mContext;
+    private final Database mDb;
+    private final Dispatcher mDispatcher = Dispatchers.mainThread();
+    private final Runnable mFlushRunnable = this::flush;
+    // Slide row key to the notes that haven't been written yet, in the order of the edits.
+    private final Map<String, String> mPending = Maps.newLinkedHashMap();
+    // Latency statistics, for the log.
+    private int mWrites;
+    private long mTotalLatencyMs;
+    private long mMaxLatencyMs;
+
+    NotesWriter(VContext context, Database db) {
+        mContext = context;
+        mDb = db;
+    }
+
+    /**
+     * Queues {@code notes} to be written to the Notes row {@code rowKey}, replacing any
+     * queued notes for that row.
+     */
+    void write(String rowKey, String notes) {
+        mPending.put(rowKey, notes);
+        mDispatcher.removeCallbacks(mFlushRunnable);
+        mDispatcher.postDelayed(mFlushRunnable, DEBOUNCE_MS);
+    }
+
+    /**
+     * Returns true if notes for {@code rowKey} are queued and haven't been written yet.
+     */
+    boolean hasPending(String rowKey) {
+        return mPending.containsKey(rowKey);
+    }
+
+    /**
+     * Starts writing all queued notes now.
+     */
+    void flush() {
+        mDispatcher.removeCallbacks(mFlushRunnable);
+        if (mPending.isEmpty()) {
+            return;
+        }
+        Table notesTable = mDb.getTable(SyncbaseDB.NOTES_TABLE);
+        for (Map.Entry<String, String> entry : mPending.entrySet()) {
+            final String rowKey = entry.getKey();
+            final Stopwatch stopwatch = Stopwatch.createStarted();
+            CancelableVContext context =
+                    mContext.withTimeout(Duration.millis(WRITE_TIMEOUT_MS));
+            Futures.addCallback(
+                    timed("put", SyncbaseDB.NOTES_TABLE, notesTable.put(
+                            context, rowKey, new VNote(entry.getValue()), VNote.class)),
+                    new FutureCallback<Void>() {
+                        @Override
+                        public void onSuccess(Void result) {
+                            long latencyMs = stopwatch.elapsed(TimeUnit.MILLISECONDS);
+                            mDispatcher.post(() -> recordLatency(rowKey, latencyMs));
+                        }
+
+                        @Override
+                        public void onFailure(Throwable t) {
+                            Log.e(TAG, "Couldn't save notes for " + rowKey, t);
+                        }
+                    });
+        }
+        mPending.clear();
+    }
+
+    // Runs on the main thread.
+    private void recordLatency(String rowKey, long latencyMs) {
+        mWrites++;
+        mTotalLatencyMs += latencyMs;
+        mMaxLatencyMs = Math.max(mMaxLatencyMs, latencyMs);
+        Log.d(TAG, String.format("Saved notes for %s in %dms (%d writes, avg %dms, max %dms)",
+                rowKey, latencyMs, mWrites, mTotalLatencyMs / mWrites, mMaxLatencyMs));
+    }
+}
@@ -0,0 +1,361 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.syncslides.db;
+
+import java.util.Random;
+
+/**
+ * Encodes and parses the keys of the rows in the Decks and Notes tables:
+ * {@code <deckId>} for a deck, {@code <deckId>/slides/<position>} for a slide and anything
+ * else under {@code <deckId>/}, e.g. {@code <deckId>/LastViewed}.  Parsing doesn't
+ * allocate; it works on offsets into the key.  These methods are called for every row
+ * and every watch change.
+ *
+ * Slides are ordered by their keys, so a position is a fractional index: there is always
+ * a position between any two others, and a slide can be added or moved by writing just
+ * its own rows.  A position is an integer index, a fraction or both, e.g. "0004", "0004.5"
+ * or ".5".  Both parts sort in numeric order:
+ * <ul>
+ *     <li>Indexes below 10000 are four digits.  Longer indexes get one letter in front
+ *     that says how many digits follow: 'A' for five, 'B' for six and so on.  The
+ *     letters sort after the digits, so e.g. "9999" &lt; "A10000" &lt; "B100000".</li>
+ *     <li>A fraction is '.' and the digits after the decimal point, without trailing
+ *     zeros.  '.' sorts before the digits, so "0004" &lt; "0004.5" &lt; "0005", and a
+ *     position without an index comes before index 0.</li>
+ * </ul>
+ * Imported slides get plain indexes, so decks stored before slides could be edited are
+ * unchanged.  Positions made by {@link #between} always end in a fraction with
+ * {@value #TIEBREAK_DIGITS} random digits at the end.  Without them, two devices that
+ * add a slide to the same gap would make the same key, and one slide would overwrite
+ * the other when they sync.
+ */
+final class SlideKeys {
+    static final String SLIDE_DIR = "slides";
+
+    /**
+     * The key of a deck's row.
+     */
+    static final int DECK = 0;
+    /**
+     * The key of a slide's row.
+     */
+    static final int SLIDE = 1;
+    /**
+     * Any other key, including malformed ones.
+     */
+    static final int OTHER = 2;
+
+    private static final char SEPARATOR = '/';
+    private static final char FRACTION = '.';
+    private static final int MIN_DIGITS = 4;
+    private static final char FIRST_LENGTH_PREFIX = 'A';
+    static final int TIEBREAK_DIGITS = 6;
+    private static final Random sRandom = new Random();
+    // "/slides/".
+    private static final int SLIDE_DIR_LENGTH = SLIDE_DIR.length() + 2;
+
+    private SlideKeys() {
+    }
+
+    /**
+     * Returns the key of slide {@code index} of the deck.
+     */
+    static String encode(String deckId, int index) {
+        if (index < 0) {
+            throw new IllegalArgumentException("Negative slide index: " + index);
+        }
+        StringBuilder key = new StringBuilder(deckId.length() + SLIDE_DIR_LENGTH + 11);
+        key.append(deckId).append(SEPARATOR).append(SLIDE_DIR).append(SEPARATOR);
+        return appendIndex(key, index).toString();
+    }
+
+    /**
+     * Returns the key of a new slide that sorts between two slides of the deck.  Only the
+     * positions of {@code before} and {@code after} are read; neither has to exist.
+     *
+     * @param before the key of the slide to go after, or null to go first
+     * @param after  the key of the slide to go before, or null to go last
+     * @throws IllegalArgumentException if a key isn't a slide key of the deck, or
+     *                                  {@code before} doesn't sort before {@code after}
+     */
+    static String between(String deckId, String before, String after) {
+        return between(deckId, before, after, randomTiebreak());
+    }
+
+    /**
+     * Like {@link #between(String, String, String)}, but ends the position with
+     * {@code tiebreak} instead of random digits.  Package-private for tests.
+     *
+     * @param tiebreak digits that don't end in '0'
+     */
+    static String between(String deckId, String before, String after, String tiebreak) {
+        if (tiebreak.isEmpty() || tiebreak.charAt(tiebreak.length() - 1) == '0' ||
+                !isDigits(tiebreak, 0)) {
+            throw new IllegalArgumentException("Bad tiebreak: " + tiebreak);
+        }
+        // Any digits after a position still sort between before and after, since the
+        // position is never a prefix of after.
+        int start = deckId.length() + SLIDE_DIR_LENGTH;
+        int lowIndex = -1;
+        String lowFraction = "";
+        if (before != null) {
+            checkInDeck(before, deckId);
+            lowIndex = index(before, start, indexEnd(before, start));
+            lowFraction = fraction(before, start);
+        }
+        if (after == null) {
+            if (lowIndex < Integer.MAX_VALUE) {
+                return encode(deckId, lowIndex + 1) + FRACTION + tiebreak;
+            }
+        } else {
+            checkInDeck(after, deckId);
+            if (before != null && before.compareTo(after) >= 0) {
+                throw new IllegalArgumentException(before + " isn't before " + after);
+            }
+        }
+        int highIndex = after == null ? Integer.MAX_VALUE : index(after, start,
+                indexEnd(after, start));
+        if (after != null && highIndex - lowIndex >= 2) {
+            return encode(deckId, lowIndex + 1) + FRACTION + tiebreak;
+        }
+        // Both are in [lowIndex, lowIndex + 1), so the new key is too.
+        String highFraction = after != null && highIndex == lowIndex ?
+                fraction(after, start) : null;
+        StringBuilder key = new StringBuilder(start + 11 + lowFraction.length() + 2);
+        key.append(deckId).append(SEPARATOR).append(SLIDE_DIR).append(SEPARATOR);
+        if (lowIndex >= 0) {
+            appendIndex(key, lowIndex);
+        }
+        key.append(FRACTION);
+        return appendFractionBetween(key, lowFraction, highFraction).append(tiebreak)
+                .toString();
+    }
+
+    /**
+     * Returns the prefix of the keys of the deck's slides.
+     */
+    static String prefix(String deckId) {
+        return deckId + SEPARATOR + SLIDE_DIR + SEPARATOR;
+    }
+
+    /**
+     * Returns {@link #DECK}, {@link #SLIDE} or {@link #OTHER}.
+     */
+    static int kind(String key) {
+        int end = deckIdLength(key);
+        if (end == key.length()) {
+            return end == 0 ? OTHER : DECK;
+        }
+        return isPosition(key, positionStart(key, end)) ? SLIDE : OTHER;
+    }
+
+    static boolean isSlideKey(String key) {
+        return kind(key) == SLIDE;
+    }
+
+    /**
+     * Returns the slide index of a slide key that was made by {@link #encode}, or -1 if
+     * {@code key} isn't one.
+     */
+    static int index(String key) {
+        int start = positionStart(key, deckIdLength(key));
+        if (!isPosition(key, start)) {
+            return -1;
+        }
+        int end = indexEnd(key, start);
+        return end == key.length() ? index(key, start, end) : -1;
+    }
+
+    /**
+     * Returns the length of the deck ID at the start of {@code key}.
+     */
+    static int deckIdLength(String key) {
+        int end = key.indexOf(SEPARATOR);
+        return end < 0 ? key.length() : end;
+    }
+
+    /**
+     * Returns the deck ID at the start of {@code key}.  Only allocates if {@code key}
+     * isn't a deck key.
+     */
+    static String deckId(String key) {
+        int end = deckIdLength(key);
+        return end == key.length() ? key : key.substring(0, end);
+    }
+
+    private static void checkInDeck(String key, String deckId) {
+        int length = deckId.length();
+        if (!key.startsWith(deckId) || deckIdLength(key) != length ||
+                !isPosition(key, positionStart(key, length))) {
+            throw new IllegalArgumentException("Not a slide of deck " + deckId + ": " + key);
+        }
+    }
+
+    /**
+     * Returns where the position starts in a key with a deck ID of length
+     * {@code deckIdLength}, or -1 if the key doesn't continue with "/slides/".
+     */
+    private static int positionStart(String key, int deckIdLength) {
+        int start = deckIdLength + SLIDE_DIR_LENGTH;
+        if (deckIdLength == 0 || key.length() < start ||
+                key.charAt(deckIdLength) != SEPARATOR ||
+                !key.regionMatches(deckIdLength + 1, SLIDE_DIR, 0, SLIDE_DIR.length()) ||
+                key.charAt(start - 1) != SEPARATOR) {
+            return -1;
+        }
+        return start;
+    }
+
+    /**
+     * Returns true if the rest of {@code key} from {@code start} is a valid position.
+     */
+    private static boolean isPosition(String key, int start) {
+        if (start < 0 || start == key.length()) {
+            return false;
+        }
+        int end = indexEnd(key, start);
+        if (end < 0) {
+            return false;
+        }
+        if (end == key.length()) {
+            return end > start;
+        }
+        if (key.charAt(end) != FRACTION || end + 1 == key.length() ||
+                key.charAt(key.length() - 1) == '0') {
+            return false;
+        }
+        return isDigits(key, end + 1);
+    }
+
+    /**
+     * Returns the end of the index that starts at {@code start}, {@code start} if there is
+     * no index, or -1 if the index is malformed.
+     */
+    private static int indexEnd(String key, int start) {
+        if (start == key.length() || key.charAt(start) == FRACTION) {
+            return start;
+        }
+        int digits = MIN_DIGITS;
+        char first = key.charAt(start);
+        if (first >= FIRST_LENGTH_PREFIX) {
+            digits = MIN_DIGITS + 1 + first - FIRST_LENGTH_PREFIX;
+            start++;
+            // A prefixed index must not fit in fewer digits, or it would have two keys.
+            if (start == key.length() || key.charAt(start) == '0') {
+                return -1;
+            }
+        }
+        int end = start + digits;
+        if (key.length() < end) {
+            return -1;
+        }
+        long index = 0;
+        for (int i = start; i < end; i++) {
+            char c = key.charAt(i);
+            if (!isDigit(c)) {
+                return -1;
+            }
+            index = index * 10 + (c - '0');
+            if (index > Integer.MAX_VALUE) {
+                return -1;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Returns the value of the well-formed index in [start, end), or -1 if it is empty.
+     */
+    private static int index(String key, int start, int end) {
+        if (start == end) {
+            return -1;
+        }
+        if (key.charAt(start) >= FIRST_LENGTH_PREFIX) {
+            start++;
+        }
+        int index = 0;
+        for (int i = start; i < end; i++) {
+            index = index * 10 + (key.charAt(i) - '0');
+        }
+        return index;
+    }
+
+    /**
+     * Returns the digits of the fraction of a well-formed position, or "" if it has none.
+     */
+    private static String fraction(String key, int start) {
+        int end = indexEnd(key, start);
+        return end == key.length() ? "" : key.substring(end + 1);
+    }
+
+    private static StringBuilder appendIndex(StringBuilder key, int index) {
+        int digits = digits(index);
+        if (digits > MIN_DIGITS) {
+            key.append((char) (FIRST_LENGTH_PREFIX + digits - MIN_DIGITS - 1));
+        }
+        for (int i = digits; i < MIN_DIGITS; i++) {
+            key.append('0');
+        }
+        return key.append(index);
+    }
+
+    /**
+     * Appends the digits of a fraction that is greater than {@code low} and less than
+     * {@code high}, with as few digits as the two allow.
+     *
+     * @param low  the digits of the lower fraction, "" for zero
+     * @param high the digits of the higher fraction, or null for one
+     */
+    private static StringBuilder appendFractionBetween(
+            StringBuilder key, String low, String high) {
+        for (int i = 0; ; i++) {
+            int lowDigit = i < low.length() ? low.charAt(i) - '0' : 0;
+            int highDigit = high == null ? 10 : i < high.length() ? high.charAt(i) - '0' : 0;
+            if (highDigit - lowDigit >= 2) {
+                return key.append((char) ('0' + (lowDigit + highDigit) / 2));
+            }
+            key.append((char) ('0' + lowDigit));
+            if (highDigit != lowDigit) {
+                // Anything after lowDigit is now less than high.
+                high = null;
+            }
+        }
+    }
+
+    private static String randomTiebreak() {
+        char[] digits = new char[TIEBREAK_DIGITS];
+        for (int i = 0; i < digits.length - 1; i++) {
+            digits[i] = (char) ('0' + sRandom.nextInt(10));
+        }
+        // No trailing zero.
+        digits[digits.length - 1] = (char) ('1' + sRandom.nextInt(9));
+        return new String(digits);
+    }
+
+    /**
+     * Returns true if the rest of {@code s} from {@code start} is all digits.
+     */
+    private static boolean isDigits(String s, int start) {
+        for (int i = start; i < s.length(); i++) {
+            if (!isDigit(s.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static int digits(int n) {
+        int digits = 1;
+        while (n >= 10) {
+            n /= 10;
+            digits++;
+        }
+        return digits;
+    }
+}
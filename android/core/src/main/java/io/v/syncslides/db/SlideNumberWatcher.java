@@ -4,31 +4,27 @@
 
 package io.v.syncslides.db;
 
-import android.os.Handler;
-import android.os.Looper;
-import android.util.Log;
-
 import com.google.common.collect.Sets;
 
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 import io.v.impl.google.naming.NamingUtil;
+import io.v.syncslides.lib.Dispatcher;
+import io.v.syncslides.lib.Dispatchers;
+import io.v.syncslides.lib.Log;
+import io.v.syncslides.lib.WatchScheduler;
 import io.v.syncslides.model.Session;
-import io.v.v23.InputChannels;
-import io.v.v23.VIterable;
 import io.v.v23.context.CancelableVContext;
 import io.v.v23.context.VContext;
-import io.v.v23.services.watch.ResumeMarker;
 import io.v.v23.syncbase.nosql.BatchDatabase;
 import io.v.v23.syncbase.nosql.ChangeType;
 import io.v.v23.syncbase.nosql.Database;
 import io.v.v23.syncbase.nosql.Table;
-import io.v.v23.syncbase.nosql.WatchChange;
 import io.v.v23.verror.VException;
-import io.v.v23.vom.VomUtil;
 
+import static io.v.syncslides.db.SyncbaseMetrics.timed;
 import static io.v.v23.VFutures.sync;
 
 /**
@@ -42,31 +38,36 @@ class SlideNumberWatcher {
 
     private final VContext mBaseContext;
     private final Database mDb;
+    private final WatchHub mHub;
     private final Set<Session.SlideNumberListener> mListeners;
-    private final ExecutorService mExecutor;
-    private final Handler mHandler;
+    private final Dispatcher mDispatcher;
     private final String mSessionId;
     private final String mDeckId;
     private final String mPresentationId;
     private int mLocalSlideNum;
+    // When the local slide number was last set on this device, in milliseconds since the
+    // epoch.  Only used on the main thread.
+    private long mLocalSlideNumTime;
     private VCurrentSlide mCurrentSlide;
     private CancelableVContext mCurrentContext;
+    private Future<?> mLocalSlideNumFuture;
+    private Future<?> mCurrentSlideFuture;
 
     /**
      * If presentationId is non-null, SlideNumberWatcher will watch for changes in addition
      * to watching the session's local slide number.
      */
-    SlideNumberWatcher(VContext context, Database db, String sessionId, String deckId,
-                       String presentationId) {
+    SlideNumberWatcher(VContext context, Database db, WatchHub hub, String sessionId,
+                       String deckId, String presentationId) {
         mBaseContext = context;
         mDb = db;
+        mHub = hub;
         mSessionId = sessionId;
         mDeckId = deckId;
         mPresentationId = presentationId;
         mListeners = Sets.newHashSet();
         mLocalSlideNum = SyncbaseSession.INVALID_LOCAL_SLIDE_NUM;
-        mHandler = new Handler(Looper.getMainLooper());
-        mExecutor = Executors.newFixedThreadPool(2);
+        mDispatcher = Dispatchers.mainThread();
     }
 
     void addListener(Session.SlideNumberListener listener) {
@@ -74,8 +75,15 @@ class SlideNumberWatcher {
         if (mListeners.size() == 1) {
             // First listener.  Start the threads.
             mCurrentContext = mBaseContext.withCancel();
-            mExecutor.submit(() -> watchLocalSlideNum());
-            mExecutor.submit(() -> watchCurrentSlide());
+            WatchScheduler scheduler = WatchScheduler.Singleton.get();
+            try {
+                mLocalSlideNumFuture = scheduler.submit(TAG, () -> watchLocalSlideNum());
+                mCurrentSlideFuture = scheduler.submit(TAG, () -> watchCurrentSlide());
+            } catch (RejectedExecutionException e) {
+                // Already logged.  Stop the loop that did start, if any.
+                stopWatching();
+                mDispatcher.post(() -> notifyError(e));
+            }
         }
         listener.onChange(getSlideNum());
     }
@@ -83,13 +91,46 @@ class SlideNumberWatcher {
     void removeListener(Session.SlideNumberListener listener) {
         mListeners.remove(listener);
         if (mListeners.isEmpty()) {
-            // Stop watchers via cancel.
-            mCurrentContext.cancel();
-            mCurrentContext = null;
-            mHandler.removeCallbacksAndMessages(null);
+            stopWatching();
+            mDispatcher.removeAll();
         }
     }
 
+    private void stopWatching() {
+        // Stop watchers via cancel.  The interrupt ends their WatchHub subscriptions.
+        mCurrentContext.cancel();
+        mCurrentContext = null;
+        if (mLocalSlideNumFuture != null) {
+            mLocalSlideNumFuture.cancel(true);
+            mLocalSlideNumFuture = null;
+        }
+        if (mCurrentSlideFuture != null) {
+            mCurrentSlideFuture.cancel(true);
+            mCurrentSlideFuture = null;
+        }
+    }
+
+    /**
+     * Applies a local slide number change right away, ahead of its write to Syncbase.
+     * Must be called on the main thread.
+     */
+    void setLocalSlideNum(int slideNum) {
+        mLocalSlideNumTime = System.currentTimeMillis();
+        localSlideChanged(slideNum);
+    }
+
+    /**
+     * Applies a local slide number read from Syncbase, unless the local slide number has
+     * been set since {@code vSession} was written.  Writes of the session lag behind and
+     * are coalesced, so older writes would otherwise move the slide number backwards.
+     */
+    private void storedSlideChanged(VSession vSession) {
+        if (vSession.getLastTouched() < mLocalSlideNumTime) {
+            return;
+        }
+        localSlideChanged(vSession.getLocalSlide());
+    }
+
     private void currentSlideChanged(VCurrentSlide slide) {
         mCurrentSlide = slide;
         notifyListeners();
@@ -123,68 +164,75 @@ class SlideNumberWatcher {
 
     // Runs in a background thread.
     private void watchCurrentSlide() {
+        String rowKey = NamingUtil.join(mDeckId, mPresentationId, SyncbaseDB.CURRENT_SLIDE);
+        WatchHub.Subscription changes = null;
         try {
-            String rowKey = NamingUtil.join(mDeckId, mPresentationId, SyncbaseDB.CURRENT_SLIDE);
-            BatchDatabase batch = sync(mDb.beginBatch(mCurrentContext, null));
+            changes = mHub.subscribe(SyncbaseDB.PRESENTATIONS_TABLE, rowKey);
+            BatchDatabase batch = sync(timed("beginBatch", null,
+                    mDb.beginBatch(mCurrentContext, null)));
             Table presentations = batch.getTable(SyncbaseDB.PRESENTATIONS_TABLE);
-            if (sync(presentations.getRow(rowKey).exists(mCurrentContext))) {
+            if (sync(timed("exists", SyncbaseDB.PRESENTATIONS_TABLE,
+                    presentations.getRow(rowKey).exists(mCurrentContext)))) {
                 final VCurrentSlide slide = (VCurrentSlide) presentations.get(
                         mCurrentContext, rowKey, VCurrentSlide.class);
-                mHandler.post(() -> currentSlideChanged(slide));
+                mDispatcher.post(() -> currentSlideChanged(slide));
             }
-            ResumeMarker marker = sync(batch.getResumeMarker(mCurrentContext));
 
-            VIterable<WatchChange> changes = InputChannels.asIterable(
-                    mDb.watch(mCurrentContext, SyncbaseDB.PRESENTATIONS_TABLE, rowKey, marker));
-            for (WatchChange change : changes) {
+            for (WatchHub.Change change : changes) {
                 String key = change.getRowName();
                 Log.i(TAG, "Found CurrentSlide change " + key);
                 if (!key.equals(rowKey)) {
                     continue;
                 }
                 if (change.getChangeType().equals(ChangeType.PUT_CHANGE)) {
-                    final VCurrentSlide slide = (VCurrentSlide) VomUtil.decode(
-                            change.getVomValue(), VCurrentSlide.class);
-                    mHandler.post(() -> currentSlideChanged(slide));
+                    final VCurrentSlide slide =
+                            (VCurrentSlide) change.decode(VCurrentSlide.class);
+                    mDispatcher.post(() -> currentSlideChanged(slide));
                 }
             }
             if (changes.error() != null) {
                 throw changes.error();
             }
         } catch (final VException e) {
-            mHandler.post(() -> notifyError(e));
+            mDispatcher.post(() -> notifyError(e));
+        } finally {
+            if (changes != null) {
+                changes.close();
+            }
         }
     }
 
     // Runs in a background thread.
     private void watchLocalSlideNum() {
+        WatchHub.Subscription changes = null;
         try {
-            BatchDatabase batch = sync(mDb.beginBatch(mCurrentContext, null));
+            changes = mHub.subscribe(SyncbaseDB.UI_TABLE, mSessionId);
+            BatchDatabase batch = sync(timed("beginBatch", null,
+                    mDb.beginBatch(mCurrentContext, null)));
             Table ui = batch.getTable(SyncbaseDB.UI_TABLE);
-            final VSession vSession = (VSession) sync(ui.get(
-                    mCurrentContext, mSessionId, VSession.class));
-            mHandler.post(() -> localSlideChanged(vSession.getLocalSlide()));
-            ResumeMarker marker = sync(batch.getResumeMarker(mCurrentContext));
-            VIterable<WatchChange> changes =
-                    InputChannels.asIterable(mDb.watch(
-                            mCurrentContext, SyncbaseDB.UI_TABLE, mSessionId, marker));
-            for (WatchChange change : changes) {
+            final VSession vSession = (VSession) sync(timed("get", SyncbaseDB.UI_TABLE,
+                    ui.get(mCurrentContext, mSessionId, VSession.class)));
+            mDispatcher.post(() -> storedSlideChanged(vSession));
+            for (WatchHub.Change change : changes) {
                 String key = change.getRowName();
                 Log.i(TAG, "Found local slide change " + key);
                 if (!key.equals(mSessionId)) {
                     continue;
                 }
                 if (change.getChangeType().equals(ChangeType.PUT_CHANGE)) {
-                    final VSession vSession1 = (VSession) VomUtil.decode(
-                            change.getVomValue(), VSession.class);
-                    mHandler.post(() -> localSlideChanged(vSession1.getLocalSlide()));
+                    final VSession vSession1 = (VSession) change.decode(VSession.class);
+                    mDispatcher.post(() -> storedSlideChanged(vSession1));
                 }
             }
             if (changes.error() != null) {
                 throw changes.error();
             }
          } catch (final VException e) {
-            mHandler.post(() -> notifyError(e));
+            mDispatcher.post(() -> notifyError(e));
+        } finally {
+            if (changes != null) {
+                changes.close();
+            }
         }
     }
 }
@@ -0,0 +1,49 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.syncslides.db;
+
+/**
+ * Keeps slide numbers pointing at the same slide when a deck is edited.  Sessions and
+ * presentations store the number of a slide, its position in the deck, rather than its
+ * key.  An edit before that position changes which slide the number means.
+ */
+final class SlideNumbers {
+    /**
+     * Used for {@code removedAt} or {@code insertedAt} when no slide was removed or
+     * inserted.
+     */
+    static final int NONE = -1;
+
+    private SlideNumbers() {
+    }
+
+    /**
+     * Returns the number of the slide that was number {@code slideNum} before a slide
+     * was removed from {@code removedAt} and/or inserted at {@code insertedAt}.  A move
+     * is both; {@code insertedAt} is the position in the edited deck.  If the slide itself
+     * was deleted, returns the number of the slide that took its place.  Negative numbers,
+     * which mean that there is no slide, are returned as they are.
+     *
+     * @param count the number of slides after the edit
+     */
+    static int renumber(int slideNum, int removedAt, int insertedAt, int count) {
+        if (slideNum < 0) {
+            return slideNum;
+        }
+        if (slideNum == removedAt) {
+            if (insertedAt != NONE) {
+                return insertedAt;
+            }
+            return Math.max(0, Math.min(slideNum, count - 1));
+        }
+        if (removedAt != NONE && slideNum > removedAt) {
+            slideNum--;
+        }
+        if (insertedAt != NONE && slideNum >= insertedAt) {
+            slideNum++;
+        }
+        return slideNum;
+    }
+}
@@ -0,0 +1,300 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.syncslides.db;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+import java.util.List;
+import java.util.Map;
+
+import io.v.syncslides.lib.Log;
+import io.v.syncslides.model.Slide;
+import io.v.syncslides.model.SlideImpl;
+import io.v.v23.InputChannels;
+import io.v.v23.VIterable;
+import io.v.v23.context.VContext;
+import io.v.v23.services.watch.ResumeMarker;
+import io.v.v23.syncbase.nosql.BatchDatabase;
+import io.v.v23.syncbase.nosql.ChangeType;
+import io.v.v23.syncbase.nosql.Database;
+import io.v.v23.syncbase.nosql.DatabaseCore;
+import io.v.v23.syncbase.nosql.KeyValue;
+import io.v.v23.syncbase.nosql.RowRange;
+import io.v.v23.syncbase.nosql.Table;
+import io.v.v23.vdl.VdlAny;
+import io.v.v23.verror.NoExistException;
+import io.v.v23.verror.VException;
+import io.v.v23.vom.VomUtil;
+
+import static io.v.syncslides.db.SyncbaseMetrics.timed;
+import static io.v.v23.VFutures.sync;
+
+/**
+ * Watches the slides in a single deck for changes.  Slides are sorted by their key, which
+ * encodes their position in the deck (see {@link SlideKeys}).  Inserting, moving or
+ * deleting a slide changes only that slide's rows, so it arrives here as one or two
+ * changes, and WatchedList applies each one at its place in the list.
+ *
+ * A slide's VSlide is in the Decks table and its notes are in the Notes table.  Both
+ * tables are watched through one WatchHub subscription, and the watcher keeps its own
+ * copy of the slides and notes so that a change to one table is applied without reading
+ * the other.  In particular, editing notes never reads slide thumbnails.
+ */
+class SlideWatcher implements Watcher<Slide>, ListSnapshot.Codec<Slide> {
+
+    private static final String TAG = "SlideWatcher";
+    private static final List<String> TABLES =
+            ImmutableList.of(SyncbaseDB.DECKS_TABLE, SyncbaseDB.NOTES_TABLE);
+    private final SyncbaseDB mSyncbase;
+    private final String mDeckId;
+    private final String mSlidePrefix;
+
+    SlideWatcher(SyncbaseDB syncbase, String deckId) {
+        mSyncbase = syncbase;
+        mDeckId = deckId;
+        mSlidePrefix = SlideKeys.prefix(deckId);
+    }
+
+    @Override
+    public void watch(VContext context, Map<String, ResumeMarker> resumeMarkers,
+                      Listener<Slide> listener) {
+        WatchHub.Subscription changes = null;
+        try {
+            // The list may already be showing a snapshot, so it's fine to wait here
+            // for syncbase to start.
+            Database db = mSyncbase.awaitDatabase();
+            WatchHub hub = mSyncbase.getWatchHub();
+            DeckContents contents;
+            // Both tables have to resume, otherwise the list could be inconsistent.
+            if (resumeMarkers != null && resumeMarkers.containsKey(SyncbaseDB.DECKS_TABLE)
+                    && resumeMarkers.containsKey(SyncbaseDB.NOTES_TABLE)) {
+                changes = hub.resume(ImmutableMap.of(
+                        SyncbaseDB.DECKS_TABLE, resumeMarkers.get(SyncbaseDB.DECKS_TABLE),
+                        SyncbaseDB.NOTES_TABLE, resumeMarkers.get(SyncbaseDB.NOTES_TABLE)),
+                        mSlidePrefix);
+            }
+            if (changes != null) {
+                contents = new DeckContents(db, false);
+                listener.onResumed();
+            } else {
+                // Subscribe before reading so that no change can slip in between.
+                changes = hub.subscribe(TABLES, mSlidePrefix);
+                contents = new DeckContents(db, true);
+                BatchDatabase batch = sync(timed("beginBatch", null, db.beginBatch(context, null)));
+                fetchInitialState(context, listener, batch, contents);
+                listener.onInitialStateLoaded();
+            }
+            for (String table : TABLES) {
+                listener.onCheckpoint(table, changes.getStartMarker(table));
+            }
+            for (WatchHub.Change change : changes) {
+                String key = change.getRowName();
+                if (!SlideKeys.isSlideKey(key)) {
+                    Log.d(TAG, "Ignoring change: " + key);
+                } else if (change.getTableName().equals(SyncbaseDB.DECKS_TABLE)) {
+                    applySlideChange(context, listener, contents, change);
+                } else {
+                    applyNoteChange(context, listener, contents, change);
+                }
+                listener.onCheckpoint(change.getTableName(), change.getResumeMarker());
+            }
+            if (changes.error() != null) {
+                throw changes.error();
+            }
+        } catch (VException e) {
+            listener.onError(e);
+        } finally {
+            if (changes != null) {
+                changes.close();
+            }
+        }
+    }
+
+    @Override
+    public int compare(Slide lhs, Slide rhs) {
+        return lhs.getId().compareTo(rhs.getId());
+    }
+
+    @Override
+    public VSnapshotRow encode(Slide slide) {
+        if (!(slide instanceof DBSlide)) {
+            return null;
+        }
+        VSlide vSlide = ((DBSlide) slide).getVSlide();
+        return new VSnapshotRow(slide.getId(), new VdlAny(VSlide.class, vSlide),
+                slide.getNotes());
+    }
+
+    @Override
+    public Slide decode(VSnapshotRow row) {
+        return new DBSlide(row.getKey(), (VSlide) row.getValue().getElem(), row.getNotes());
+    }
+
+    private void fetchInitialState(VContext context, Listener<Slide> listener,
+                                   BatchDatabase batch, DeckContents contents)
+            throws VException {
+        contents.mNotes.putAll(scanNotes(context, batch, mDeckId));
+        for (Map.Entry<String, VSlide> entry : scanSlides(context, batch, mDeckId).entrySet()) {
+            String key = entry.getKey();
+            Log.i(TAG, "Fetched slide " + key);
+            contents.mSlides.put(key, entry.getValue());
+            listener.onPut(new DBSlide(key, entry.getValue(), contents.getNotes(context, key)));
+        }
+    }
+
+    /**
+     * Returns the slides of the deck, by key, in key order.  Only the deck's own rows
+     * are read.
+     */
+    static Map<String, VSlide> scanSlides(VContext context, DatabaseCore db, String deckId)
+            throws VException {
+        Map<String, VSlide> slides = Maps.newLinkedHashMap();
+        Table decksTable = db.getTable(SyncbaseDB.DECKS_TABLE);
+        long start = System.nanoTime();
+        VIterable<KeyValue> rows = InputChannels.asIterable(
+                decksTable.scan(context, RowRange.prefix(SlideKeys.prefix(deckId))));
+        for (KeyValue row : rows) {
+            slides.put(row.getKey(), (VSlide) VomUtil.decode(row.getValue(), VSlide.class));
+        }
+        if (rows.error() != null) {
+            throw rows.error();
+        }
+        SyncbaseMetrics.record("scan", SyncbaseDB.DECKS_TABLE, start);
+        return slides;
+    }
+
+    /**
+     * Returns the notes of every slide in the deck that has notes, by slide key.  Notes
+     * are sparse, so one scan is much cheaper than a get() per slide.
+     */
+    static Map<String, String> scanNotes(VContext context, DatabaseCore db, String deckId)
+            throws VException {
+        Map<String, String> notes = Maps.newHashMap();
+        Table notesTable = db.getTable(SyncbaseDB.NOTES_TABLE);
+        long start = System.nanoTime();
+        VIterable<KeyValue> rows = InputChannels.asIterable(
+                notesTable.scan(context, RowRange.prefix(SlideKeys.prefix(deckId))));
+        for (KeyValue row : rows) {
+            VNote note = (VNote) VomUtil.decode(row.getValue(), VNote.class);
+            notes.put(row.getKey(), note.getText());
+        }
+        if (rows.error() != null) {
+            throw rows.error();
+        }
+        SyncbaseMetrics.record("scan", SyncbaseDB.NOTES_TABLE, start);
+        return notes;
+    }
+
+    private void applySlideChange(VContext context, Listener<Slide> listener,
+                                  DeckContents contents, WatchHub.Change change)
+            throws VException {
+        String key = change.getRowName();
+        if (change.getChangeType().equals(ChangeType.PUT_CHANGE)) {
+            // New slide or change to an existing slide.
+            VSlide vSlide = null;
+            try {
+                vSlide = (VSlide) change.decode(VSlide.class);
+            } catch (VException e) {
+                Log.e(TAG, "Couldn't decode slide: " + e.toString());
+                return; // Just skip it.
+            }
+            contents.mSlides.put(key, vSlide);
+            listener.onPut(new DBSlide(key, vSlide, contents.getNotes(context, key)));
+        } else { // ChangeType.DELETE_CHANGE
+            contents.mSlides.remove(key);
+            listener.onDelete(new SlideImpl(key, null, null, null));
+        }
+    }
+
+    private void applyNoteChange(VContext context, Listener<Slide> listener,
+                                 DeckContents contents, WatchHub.Change change)
+            throws VException {
+        String key = change.getRowName();
+        String notes;
+        if (change.getChangeType().equals(ChangeType.PUT_CHANGE)) {
+            VNote vNote = null;
+            try {
+                vNote = (VNote) change.decode(VNote.class);
+            } catch (VException e) {
+                Log.e(TAG, "Couldn't decode notes: " + e.toString());
+                return; // Just skip it.
+            }
+            notes = vNote.getText();
+        } else { // ChangeType.DELETE_CHANGE
+            notes = "";
+        }
+        contents.mNotes.put(key, notes);
+        VSlide vSlide = contents.getSlide(context, key);
+        if (vSlide == null) {
+            // Notes for a slide that doesn't exist (anymore).  If the slide shows up
+            // later, it will pick up these notes.
+            return;
+        }
+        listener.onPut(new DBSlide(key, vSlide, notes));
+    }
+
+    /**
+     * The watcher's copy of the slides and notes in the deck.  After a full load, it has
+     * every slide and note.  After a resume, it starts out empty and rows are read from
+     * Syncbase the first time they are needed.  Only used by the watching thread.
+     */
+    private class DeckContents {
+        private final Map<String, VSlide> mSlides = Maps.newHashMap();
+        private final Map<String, String> mNotes = Maps.newHashMap();
+        private final Database mDb;
+        // Whether a missing row is known not to exist.
+        private final boolean mComplete;
+
+        DeckContents(Database db, boolean complete) {
+            mDb = db;
+            mComplete = complete;
+        }
+
+        VSlide getSlide(VContext context, String key) throws VException {
+            VSlide slide = mSlides.get(key);
+            if (slide == null && !mComplete) {
+                slide = fetchVSlide(context, mDb.getTable(SyncbaseDB.DECKS_TABLE), key);
+                if (slide != null) {
+                    mSlides.put(key, slide);
+                }
+            }
+            return slide;
+        }
+
+        String getNotes(VContext context, String key) throws VException {
+            String notes = mNotes.get(key);
+            if (notes == null) {
+                notes = mComplete ? "" :
+                        notesForSlide(context, mDb.getTable(SyncbaseDB.NOTES_TABLE), key);
+                mNotes.put(key, notes);
+            }
+            return notes;
+        }
+    }
+
+    private static String notesForSlide(VContext context, Table notesTable, String key)
+            throws VException {
+        try {
+            VNote note = (VNote) sync(timed("get", SyncbaseDB.NOTES_TABLE,
+                    notesTable.get(context, key, VNote.class)));
+            return note.getText();
+        } catch (NoExistException e) {
+            // It is ok for the notes to not exist for a slide.
+            return "";
+        }
+    }
+
+    private static VSlide fetchVSlide(VContext context, Table decksTable, String key)
+            throws VException {
+        try {
+            return (VSlide) sync(timed("get", SyncbaseDB.DECKS_TABLE,
+                    decksTable.get(context, key, VSlide.class)));
+        } catch (NoExistException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.syncslides.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A random-access list that keeps its elements sorted by a Comparator.  Elements
+ * that compare equal are considered to be the same element, so put() replaces rather
+ * than duplicates.
+ *
+ * Positions are found with a binary search, so put() and remove() cost O(log n)
+ * comparisons.  Moving the tail of the array is a single System.arraycopy().
+ */
+class SortedArrayList<E> {
+    private final ArrayList<E> mElems;
+    private final Comparator<? super E> mComparator;
+
+    SortedArrayList(Comparator<? super E> comparator) {
+        mElems = new ArrayList<>();
+        mComparator = comparator;
+    }
+
+    int size() {
+        return mElems.size();
+    }
+
+    boolean isEmpty() {
+        return mElems.isEmpty();
+    }
+
+    E get(int i) {
+        return mElems.get(i);
+    }
+
+    /**
+     * Returns the position of {@code elem} if it is in the list.  Otherwise, returns
+     * {@code -(insertionPoint + 1)}, just like {@link Collections#binarySearch}.
+     */
+    int indexOf(E elem) {
+        return Collections.binarySearch(mElems, elem, mComparator);
+    }
+
+    /**
+     * Inserts {@code elem}, or replaces the element that compares equal to it.  Callers
+     * can tell the two cases apart by checking whether size() changed.
+     *
+     * @return the position of {@code elem}
+     */
+    int put(E elem) {
+        int idx = indexOf(elem);
+        if (idx >= 0) {
+            mElems.set(idx, elem);
+            return idx;
+        }
+        idx = -(idx + 1);
+        mElems.add(idx, elem);
+        return idx;
+    }
+
+    /**
+     * Removes the element that compares equal to {@code elem}.
+     *
+     * @return the position that the element had or -1 if there was no such element
+     */
+    int remove(E elem) {
+        int idx = indexOf(elem);
+        if (idx < 0) {
+            return -1;
+        }
+        mElems.remove(idx);
+        return idx;
+    }
+
+    void clear() {
+        mElems.clear();
+    }
+
+    /**
+     * Returns a snapshot of the elements in order.
+     */
+    List<E> toList() {
+        return new ArrayList<>(mElems);
+    }
+}
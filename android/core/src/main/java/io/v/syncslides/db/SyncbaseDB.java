@@ -0,0 +1,795 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.syncslides.db;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.ByteSource;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.joda.time.Duration;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import io.v.impl.google.naming.NamingUtil;
+import io.v.impl.google.services.syncbase.SyncbaseServer;
+import io.v.syncslides.InitException;
+import io.v.syncslides.lib.Log;
+import io.v.syncslides.model.Deck;
+import io.v.syncslides.model.DeckImpl;
+import io.v.syncslides.model.DynamicList;
+import io.v.syncslides.model.NoopList;
+import io.v.syncslides.model.Session;
+import io.v.syncslides.model.Slide;
+import io.v.syncslides.model.SlideSource;
+import io.v.v23.InputChannels;
+import io.v.v23.V;
+import io.v.v23.VIterable;
+import io.v.v23.context.CancelableVContext;
+import io.v.v23.context.VContext;
+import io.v.v23.rpc.Server;
+import io.v.v23.security.BlessingPattern;
+import io.v.v23.security.Blessings;
+import io.v.v23.security.access.AccessList;
+import io.v.v23.security.access.Constants;
+import io.v.v23.security.access.Permissions;
+import io.v.v23.syncbase.Syncbase;
+import io.v.v23.syncbase.SyncbaseApp;
+import io.v.v23.syncbase.SyncbaseService;
+import io.v.v23.syncbase.nosql.BatchDatabase;
+import io.v.v23.syncbase.nosql.Database;
+import io.v.v23.syncbase.nosql.KeyValue;
+import io.v.v23.syncbase.nosql.RowRange;
+import io.v.v23.syncbase.nosql.Table;
+import io.v.v23.verror.NoExistException;
+import io.v.v23.verror.VException;
+import io.v.v23.vom.VomUtil;
+
+import static io.v.syncslides.db.SyncbaseMetrics.timed;
+import static io.v.v23.VFutures.sync;
+
+class SyncbaseDB implements DB {
+    private static final String TAG = "SyncbaseDB";
+    private static final String SYNCBASE_APP = "syncslides";
+    private static final String SYNCBASE_DB = "syncslides";
+    static final String DECKS_TABLE = "Decks";
+    static final String DECK_INDEX_TABLE = "DeckIndex";
+    static final String NOTES_TABLE = "Notes";
+    static final String PRESENTATIONS_TABLE = "Presentations";
+    static final String UI_TABLE = "UI";
+    static final String BLOB_INDEX_TABLE = "BlobIndex";
+    static final String CURRENT_SLIDE = "CurrentSlide";
+    static final String QUESTIONS = "questions";
+    private static final String SYNCGROUP_PRESENTATION_DESCRIPTION = "Live Presentation";
+    private static final String SNAPSHOT_DIR = "snapshots";
+    private static final int DEFAULT_IMPORT_BATCH_SIZE = 20;
+    private static final int DEFAULT_IMPORT_WINDOW = 2 * DEFAULT_IMPORT_BATCH_SIZE;
+    private static final int DEFAULT_UPLOAD_PARALLELISM = 4;
+    private static final long DEFAULT_UPLOAD_BYTES_IN_FLIGHT = 8 * 1024 * 1024;
+
+    private static final List<String> TABLES = ImmutableList.of(
+            DECKS_TABLE, DECK_INDEX_TABLE, NOTES_TABLE, PRESENTATIONS_TABLE, UI_TABLE,
+            BLOB_INDEX_TABLE);
+
+    // Set by init.  Completes when mDB and mWatchHub are set.
+    private ListenableFuture<Void> mReady;
+    private ListeningExecutorService mExecutorService;
+    private Permissions mPermissions;
+    private Blessings mBlessings;
+    private File mFilesDir;
+    private VContext mVContext;
+    private Server mSyncbaseServer;
+    private Database mDB;
+    private WatchHub mWatchHub;
+    private BlobCollector mBlobCollector;
+    // Shared by every caller so that they can reuse each other's data.  See WatchedList.
+    private volatile int mImportBatchSize = DEFAULT_IMPORT_BATCH_SIZE;
+    private volatile int mImportWindow = DEFAULT_IMPORT_WINDOW;
+    private volatile int mUploadParallelism = DEFAULT_UPLOAD_PARALLELISM;
+    private volatile long mUploadBytesInFlight = DEFAULT_UPLOAD_BYTES_IN_FLIGHT;
+    private WatchedList<Deck> mDecks;
+    private final Map<String, WatchedList<Slide>> mSlideLists = Maps.newHashMap();
+
+    // Singleton.
+    SyncbaseDB() {
+    }
+
+    @Override
+    public synchronized ListenableFuture<Void> init(
+            VContext context, Blessings blessings, File filesDir) {
+        if (mReady != null) {
+            return mReady;
+        }
+        mFilesDir = filesDir;
+        if (mExecutorService == null) {
+            mExecutorService = MoreExecutors.listeningDecorator(Executors.newCachedThreadPool());
+        }
+
+        // If blessings aren't in place, the fragment that called this
+        // initialization may continue to load and use DB, but nothing will
+        // work so DB methods should return noop values.  It's assumed that
+        // the calling fragment will send the user to the AccountManager,
+        // accept blessings on return, then re-call this init.
+        if (blessings == null) {
+            Log.d(TAG, "no blessings.");
+            return Futures.immediateFailedFuture(new InitException("No blessings", null));
+        }
+        mVContext = context;
+        mBlessings = blessings;
+        mReady = mExecutorService.submit(() -> {
+            setupSyncbase();
+            return null;
+        });
+        return mReady;
+    }
+
+    /**
+     * Returns the database, waiting for {@link #init} to finish if it hasn't yet.  Blocks,
+     * so only call it on the main thread if the UI can't do anything without the database.
+     *
+     * @throws VException if initialization failed or hasn't been started
+     */
+    Database awaitDatabase() throws VException {
+        ListenableFuture<Void> ready;
+        synchronized (this) {
+            ready = mReady;
+        }
+        if (ready == null) {
+            throw new VException("Syncbase is not initialized");
+        }
+        try {
+            ready.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new VException("Interrupted while waiting for syncbase");
+        } catch (ExecutionException e) {
+            throw new VException("Couldn't initialize syncbase: " + e.getCause());
+        }
+        return mDB;
+    }
+
+    /**
+     * Returns the WatchHub.  Only valid after {@link #awaitDatabase} has returned.
+     */
+    WatchHub getWatchHub() {
+        return mWatchHub;
+    }
+
+    // Runs in a background thread.
+    private void setupSyncbase() throws InitException {
+        Stopwatch total = Stopwatch.createStarted();
+        Stopwatch phase = Stopwatch.createStarted();
+        Map<String, Long> timings = Maps.newLinkedHashMap();
+        Blessings blessings = mBlessings;
+        AccessList everyoneAcl = new AccessList(
+                ImmutableList.of(new BlessingPattern("...")), ImmutableList.<String>of());
+        AccessList justMeAcl = new AccessList(
+                ImmutableList.of(new BlessingPattern(blessings.toString())),
+                ImmutableList.<String>of());
+
+        mPermissions = new Permissions(ImmutableMap.of(
+                Constants.RESOLVE.getValue(), everyoneAcl,
+                Constants.READ.getValue(), justMeAcl,
+                Constants.WRITE.getValue(), justMeAcl,
+                Constants.ADMIN.getValue(), justMeAcl));
+
+        // Prepare the syncbase storage directory.
+        File storageDir = new File(mFilesDir, "syncbase");
+        storageDir.mkdirs();
+
+        try {
+            mVContext = SyncbaseServer.withNewServer(mVContext, new SyncbaseServer.Params()
+                    .withPermissions(mPermissions)
+                            // TODO(kash): Mount it!
+                            //.withName(V23Manager.syncName(id))
+                    .withStorageRootDir(storageDir.getAbsolutePath()));
+        } catch (SyncbaseServer.StartException e) {
+            throw new InitException("Couldn't start syncbase server", e);
+        }
+        endPhase(timings, "server", phase);
+        try {
+            mSyncbaseServer = V.getServer(mVContext);
+            Log.i(TAG, "Endpoints: " + Arrays.toString(mSyncbaseServer.getStatus().getEndpoints()));
+            String serverName = "/" + mSyncbaseServer.getStatus().getEndpoints()[0];
+
+            // Now that we've started Syncbase, set up our connections to it.
+            SyncbaseService service = Syncbase.newService(serverName);
+            SyncbaseApp app = service.getApp(SYNCBASE_APP);
+            if (!sync(timed("exists", null, app.exists(mVContext)))) {
+                sync(timed("create", null, app.create(mVContext, mPermissions)));
+            }
+            endPhase(timings, "app", phase);
+            Database db = app.getNoSqlDatabase(SYNCBASE_DB, null);
+            if (!sync(timed("exists", null, db.exists(mVContext)))) {
+                sync(timed("create", null, db.create(mVContext, mPermissions)));
+            }
+            endPhase(timings, "database", phase);
+            // The tables are independent of each other, so check them all at once.
+            List<ListenableFuture<Void>> tables = Lists.newArrayList();
+            for (final String name : TABLES) {
+                final Table table = db.getTable(name);
+                tables.add(mExecutorService.submit(() -> {
+                    if (!sync(timed("exists", name, table.exists(mVContext)))) {
+                        sync(timed("create", name, table.create(mVContext, mPermissions)));
+                    }
+                    return null;
+                }));
+            }
+            sync(Futures.allAsList(tables));
+            endPhase(timings, "tables", phase);
+            mDB = db;
+            mWatchHub = new WatchHub(mVContext, mDB);
+            mBlobCollector = new BlobCollector(mVContext, mDB);
+            mBlobCollector.start();
+            mExecutorService.execute(this::backfillDeckIndex);
+            //importDecks();
+        } catch (VException e) {
+            throw new InitException("Couldn't setup syncbase service", e);
+        }
+        Log.i(TAG, "Syncbase ready in " + total.elapsed(TimeUnit.MILLISECONDS) + "ms " +
+                timings);
+    }
+
+    /**
+     * Records how long {@code phase} has been running as the time of {@code name}
+     * and restarts it for the next phase.
+     */
+    private static void endPhase(Map<String, Long> timings, String name, Stopwatch phase) {
+        long millis = phase.elapsed(TimeUnit.MILLISECONDS);
+        timings.put(name, millis);
+        Log.d(TAG, "Startup phase " + name + " took " + millis + "ms");
+        phase.reset().start();
+    }
+
+    @Override
+    public String createSession(String deckId) throws VException {
+        awaitDatabase();
+        String uuid = UUID.randomUUID().toString();
+        SyncbaseSession session = new SyncbaseSession(
+                mVContext, mDB, mWatchHub, uuid, deckId, getSlides(deckId));
+        session.save();
+        return uuid;
+    }
+
+    @Override
+    public Session getSession(String sessionId) throws VException {
+        Table ui = awaitDatabase().getTable(UI_TABLE);
+        CancelableVContext context = mVContext.withTimeout(Duration.millis(5000));
+        VSession vSession = (VSession) sync(timed("get", UI_TABLE,
+                ui.get(context, sessionId, VSession.class)));
+        return new SyncbaseSession(mVContext, mDB, mWatchHub, sessionId, vSession,
+                getSlides(vSession.getDeckId()));
+    }
+
+    private synchronized DynamicList<Slide> getSlides(String deckId) {
+        WatchedList<Slide> slides = mSlideLists.get(deckId);
+        if (slides == null) {
+            SlideWatcher watcher = new SlideWatcher(this, deckId);
+            slides = new WatchedList<>(mVContext, watcher,
+                    new ListSnapshot<>(slidesSnapshotFile(deckId), watcher));
+            mSlideLists.put(deckId, slides);
+        }
+        return slides;
+    }
+
+    /**
+     * Drops the cached slide list of a deleted deck and deletes its snapshot, so that the
+     * deck's slides can't come back from it.
+     */
+    private void forgetSlides(String deckId) {
+        WatchedList<Slide> slides;
+        synchronized (this) {
+            slides = mSlideLists.remove(deckId);
+        }
+        ListSnapshot<Slide> snapshot = slides != null ? slides.getSnapshot() :
+                new ListSnapshot<>(slidesSnapshotFile(deckId), null);
+        snapshot.delete();
+    }
+
+    @Override
+    public synchronized DynamicList<Deck> getDecks() {
+        // The list can show its snapshot while syncbase is still starting up.
+        if (mReady == null) {
+            return new NoopList<>();
+        }
+        if (mDecks == null) {
+            DeckWatcher watcher = new DeckWatcher(this);
+            mDecks = new WatchedList<>(mVContext, watcher,
+                    new ListSnapshot<>(snapshotFile("decks"), watcher));
+        }
+        return mDecks;
+    }
+
+    private File snapshotFile(String name) {
+        return new File(new File(mFilesDir, SNAPSHOT_DIR), name);
+    }
+
+    private File slidesSnapshotFile(String deckId) {
+        return snapshotFile("slides-" + deckId);
+    }
+
+    @Override
+    public ListenableFuture<Void> importDeck(final Deck deck, final Slide[] slides) {
+        return importDeck(deck, Lists.transform(Arrays.asList(slides), LoadedSlide::new));
+    }
+
+    @Override
+    public ListenableFuture<Void> importDeck(final Deck deck,
+                                             final List<? extends SlideSource> slides) {
+        return mExecutorService.submit(() -> {
+            awaitDatabase();
+            mBlobCollector.beginImport();
+            try {
+                importDeckInBatches(deck, slides);
+            } finally {
+                mBlobCollector.endImport();
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public ListenableFuture<Void> deleteDeck(final String deckId) {
+        return mExecutorService.submit(() -> {
+            awaitDatabase();
+            Log.i(TAG, "Deleting deck " + deckId);
+            // Deck IDs are UUIDs, so no other deck's rows start with deckId.
+            String children = deckId + "/";
+            BatchDatabase batch = sync(timed("beginBatch", null, mDB.beginBatch(mVContext, null)));
+            try {
+                sync(Futures.allAsList(
+                        timed("delete", DECK_INDEX_TABLE,
+                                batch.getTable(DECK_INDEX_TABLE).delete(mVContext, deckId)),
+                        timed("deleteRange", DECKS_TABLE, batch.getTable(DECKS_TABLE)
+                                .deleteRange(mVContext, RowRange.prefix(deckId))),
+                        timed("deleteRange", NOTES_TABLE, batch.getTable(NOTES_TABLE)
+                                .deleteRange(mVContext, RowRange.prefix(children))),
+                        timed("deleteRange", PRESENTATIONS_TABLE,
+                                batch.getTable(PRESENTATIONS_TABLE)
+                                        .deleteRange(mVContext, RowRange.prefix(children)))));
+                sync(timed("commit", null, batch.commit(mVContext)));
+            } catch (VException e) {
+                batch.abort(mVContext);
+                throw e;
+            }
+            forgetSlides(deckId);
+            // The images may be shared with other decks, so leave them to the collector.
+            mBlobCollector.collectSoon();
+            return null;
+        });
+    }
+
+    @Override
+    public ListenableFuture<String> insertSlide(final String deckId, final String prevSlideId,
+                                                final String nextSlideId, final Slide slide) {
+        return mExecutorService.submit(() -> {
+            awaitDatabase();
+            String key = SlideKeys.between(deckId, prevSlideId, nextSlideId);
+            Log.i(TAG, "Inserting slide " + key);
+            mBlobCollector.beginImport();
+            try (BlobUploader uploader = new BlobUploader(
+                    mVContext, mDB, 1, mUploadBytesInFlight)) {
+                String imageRef = sync(uploader.upload(key,
+                        ByteSource.wrap(slide.getImageData())));
+                BatchDatabase batch =
+                        sync(timed("beginBatch", null, mDB.beginBatch(mVContext, null)));
+                try {
+                    List<String> keys = slideKeys(batch, deckId);
+                    putSlide(batch, key, new VSlide(slide.getThumbData(), imageRef),
+                            slide.getNotes());
+                    renumberSlides(batch, deckId, SlideNumbers.NONE, position(keys, key),
+                            keys.size() + 1);
+                    sync(timed("commit", null, batch.commit(mVContext)));
+                } catch (VException e) {
+                    batch.abort(mVContext);
+                    throw e;
+                }
+            } finally {
+                mBlobCollector.endImport();
+            }
+            return key;
+        });
+    }
+
+    @Override
+    public ListenableFuture<String> moveSlide(final String deckId, final String slideId,
+                                              final String prevSlideId,
+                                              final String nextSlideId) {
+        return mExecutorService.submit(() -> {
+            awaitDatabase();
+            String key = SlideKeys.between(deckId, prevSlideId, nextSlideId);
+            Log.i(TAG, "Moving slide " + slideId + " to " + key);
+            BatchDatabase batch = sync(timed("beginBatch", null, mDB.beginBatch(mVContext, null)));
+            try {
+                Table decks = batch.getTable(DECKS_TABLE);
+                Table notes = batch.getTable(NOTES_TABLE);
+                VSlide vSlide = (VSlide) sync(timed("get", DECKS_TABLE,
+                        decks.get(mVContext, slideId, VSlide.class)));
+                String text = "";
+                try {
+                    text = ((VNote) sync(timed("get", NOTES_TABLE,
+                            notes.get(mVContext, slideId, VNote.class)))).getText();
+                } catch (NoExistException e) {
+                    // It is ok for the notes to not exist for a slide.
+                }
+                List<String> keys = slideKeys(batch, deckId);
+                int from = position(keys, slideId);
+                keys.remove(from);
+                putSlide(batch, key, vSlide, text);
+                sync(Futures.allAsList(
+                        timed("delete", DECKS_TABLE, decks.delete(mVContext, slideId)),
+                        timed("delete", NOTES_TABLE, notes.delete(mVContext, slideId))));
+                renumberSlides(batch, deckId, from, position(keys, key), keys.size() + 1);
+                sync(timed("commit", null, batch.commit(mVContext)));
+            } catch (VException e) {
+                batch.abort(mVContext);
+                throw e;
+            }
+            return key;
+        });
+    }
+
+    @Override
+    public ListenableFuture<Void> deleteSlide(final String deckId, final String slideId) {
+        return mExecutorService.submit(() -> {
+            awaitDatabase();
+            Log.i(TAG, "Deleting slide " + slideId);
+            BatchDatabase batch = sync(timed("beginBatch", null, mDB.beginBatch(mVContext, null)));
+            try {
+                List<String> keys = slideKeys(batch, deckId);
+                int at = Collections.binarySearch(keys, slideId);
+                sync(Futures.allAsList(
+                        timed("delete", DECKS_TABLE,
+                                batch.getTable(DECKS_TABLE).delete(mVContext, slideId)),
+                        timed("delete", NOTES_TABLE,
+                                batch.getTable(NOTES_TABLE).delete(mVContext, slideId))));
+                if (at >= 0) {
+                    renumberSlides(batch, deckId, at, SlideNumbers.NONE, keys.size() - 1);
+                }
+                sync(timed("commit", null, batch.commit(mVContext)));
+            } catch (VException e) {
+                batch.abort(mVContext);
+                throw e;
+            }
+            mBlobCollector.collectSoon();
+            return null;
+        });
+    }
+
+    /**
+     * Writes a slide's rows.  Notes are sparse, so empty notes aren't written.
+     */
+    private void putSlide(BatchDatabase batch, String key, VSlide vSlide, String notes)
+            throws VException {
+        List<ListenableFuture<Void>> puts = Lists.newArrayList();
+        puts.add(timed("put", DECKS_TABLE,
+                batch.getTable(DECKS_TABLE).put(mVContext, key, vSlide, VSlide.class)));
+        if (notes != null && !notes.isEmpty()) {
+            puts.add(timed("put", NOTES_TABLE, batch.getTable(NOTES_TABLE)
+                    .put(mVContext, key, new VNote(notes), VNote.class)));
+        }
+        sync(Futures.allAsList(puts));
+    }
+
+    /**
+     * Returns the keys of the deck's slides, in order.  Unlike
+     * {@link SlideWatcher#scanSlides}, doesn't decode the slides.
+     */
+    private List<String> slideKeys(BatchDatabase batch, String deckId) throws VException {
+        List<String> keys = Lists.newArrayList();
+        long start = System.nanoTime();
+        VIterable<KeyValue> rows = InputChannels.asIterable(batch.getTable(DECKS_TABLE)
+                .scan(mVContext, RowRange.prefix(SlideKeys.prefix(deckId))));
+        for (KeyValue row : rows) {
+            keys.add(row.getKey());
+        }
+        if (rows.error() != null) {
+            throw rows.error();
+        }
+        SyncbaseMetrics.record("scan", DECKS_TABLE, start);
+        return keys;
+    }
+
+    /**
+     * Returns the number of {@code keys} that sort before {@code key}.
+     */
+    private static int position(List<String> keys, String key) {
+        int i = Collections.binarySearch(keys, key);
+        return i >= 0 ? i : -i - 1;
+    }
+
+    /**
+     * Renumbers the deck's current slides and the local slides of its sessions after a
+     * slide was removed and/or inserted, so that they keep pointing at the same slides.
+     * See {@link SlideNumbers#renumber}.
+     */
+    private void renumberSlides(BatchDatabase batch, String deckId, int removedAt,
+                                int insertedAt, int count) throws VException {
+        List<ListenableFuture<Void>> puts = Lists.newArrayList();
+        Table presentations = batch.getTable(PRESENTATIONS_TABLE);
+        String currentSlideSuffix = "/" + CURRENT_SLIDE;
+        VIterable<KeyValue> rows = InputChannels.asIterable(
+                presentations.scan(mVContext, RowRange.prefix(deckId + "/")));
+        for (KeyValue row : rows) {
+            if (!row.getKey().endsWith(currentSlideSuffix)) {
+                continue;
+            }
+            VCurrentSlide current =
+                    (VCurrentSlide) VomUtil.decode(row.getValue(), VCurrentSlide.class);
+            int slideNum = SlideNumbers.renumber(
+                    current.getSlideNum(), removedAt, insertedAt, count);
+            if (slideNum != current.getSlideNum()) {
+                puts.add(timed("put", PRESENTATIONS_TABLE, presentations.put(mVContext,
+                        row.getKey(), new VCurrentSlide(slideNum), VCurrentSlide.class)));
+            }
+        }
+        if (rows.error() != null) {
+            throw rows.error();
+        }
+        // Sessions are keyed by session ID, so all of them have to be read.  There are
+        // few of them.
+        Table ui = batch.getTable(UI_TABLE);
+        rows = InputChannels.asIterable(ui.scan(mVContext, RowRange.prefix("")));
+        for (KeyValue row : rows) {
+            VSession session = (VSession) VomUtil.decode(row.getValue(), VSession.class);
+            if (!deckId.equals(session.getDeckId())) {
+                continue;
+            }
+            int slideNum = SlideNumbers.renumber(
+                    session.getLocalSlide(), removedAt, insertedAt, count);
+            if (slideNum != session.getLocalSlide()) {
+                session.setLocalSlide(slideNum);
+                // Newer than the last local change, so SlideNumberWatcher applies it.
+                session.setLastTouched(System.currentTimeMillis());
+                puts.add(timed("put", UI_TABLE,
+                        ui.put(mVContext, row.getKey(), session, VSession.class)));
+            }
+        }
+        if (rows.error() != null) {
+            throw rows.error();
+        }
+        sync(Futures.allAsList(puts));
+    }
+
+    @Override
+    public Deck getDeck(String deckId) throws VException {
+        Table decks = awaitDatabase().getTable(SyncbaseDB.DECKS_TABLE);
+        VDeck vDeck = (VDeck) sync(timed("get", DECKS_TABLE,
+                decks.get(mVContext, deckId, VDeck.class)));
+        return new DeckImpl(vDeck.getTitle(), vDeck.getThumbnail(), deckId);
+    }
+
+
+    private void putDeckIndex(String deckId, VDeck vDeck) throws VException {
+        Table index = mDB.getTable(DECK_INDEX_TABLE);
+        sync(timed("put", DECK_INDEX_TABLE,
+                index.put(mVContext, deckId, vDeck, VDeck.class)));
+    }
+
+    /**
+     * Adds DeckIndex rows for decks that were stored before there was an index.  Runs in
+     * a background thread after setup; package-private for tests.
+     */
+    void backfillDeckIndex() {
+        try {
+            Set<String> indexed = Sets.newHashSet();
+            for (Deck deck : DeckWatcher.scanIndex(mVContext, mDB)) {
+                indexed.add(deck.getId());
+            }
+            for (Deck deck : DeckWatcher.scanDecks(mVContext, mDB)) {
+                if (!indexed.contains(deck.getId())) {
+                    Log.i(TAG, "Adding deck " + deck.getId() + " to the index");
+                    putDeckIndex(deck.getId(), new VDeck(deck.getTitle(), deck.getThumbData()));
+                }
+            }
+        } catch (VException e) {
+            Log.e(TAG, "Couldn't fill in the deck index: " + e);
+        }
+    }
+
+    /**
+     * Sets how many slides {@link #importDeck} writes in each batch.
+     */
+    void setImportBatchSize(int slidesPerBatch) {
+        Preconditions.checkArgument(slidesPerBatch > 0);
+        mImportBatchSize = slidesPerBatch;
+    }
+
+    /**
+     * Sets how many slides {@link #importDeck} may have in progress: uploading their
+     * images or waiting for their batch to be written.  This bounds the memory an import
+     * uses.  The window is never smaller than a batch.
+     */
+    void setImportWindow(int slides) {
+        Preconditions.checkArgument(slides > 0);
+        mImportWindow = slides;
+    }
+
+    /**
+     * Sets how many slide images {@link #importDeck} uploads at once.
+     */
+    void setBlobUploadParallelism(int parallelism) {
+        Preconditions.checkArgument(parallelism > 0);
+        mUploadParallelism = parallelism;
+    }
+
+    /**
+     * Sets how many bytes of slide images {@link #importDeck} may be writing at once,
+     * however many slides are in its window.
+     */
+    void setBlobUploadBytesInFlight(long bytes) {
+        Preconditions.checkArgument(bytes > 0);
+        mUploadBytesInFlight = bytes;
+    }
+
+    /**
+     * Writes the deck and its slides in batches of {@code mImportBatchSize} slides.
+     * The deck's own Decks and DeckIndex rows go into the last batch, so neither
+     * DeckWatcher nor {@link #backfillDeckIndex} sees the deck until all of it has been
+     * committed.  If a batch fails, the slide rows that were already committed are deleted.
+     *
+     * Blobs can't be written inside a batch.  Slide images are queued for upload up to
+     * {@code mImportWindow} slides ahead of the batch being written, so later blobs upload
+     * while earlier batches are written.  Images are streamed into their blobs and
+     * thumbnails are only read when their batch is written, so memory use is bounded by
+     * the window rather than by the size of the deck.  The bytes being written at once are
+     * bounded by {@code mUploadBytesInFlight}.
+     */
+    private void importDeckInBatches(Deck deck, List<? extends SlideSource> slides)
+            throws VException {
+        String deckId = deck.getId();
+        Log.i(TAG, String.format("Adding deck %s, %s", deckId, deck.getTitle()));
+        VDeck vDeck = new VDeck(deck.getTitle(), deck.getThumbData());
+        int batchSize = mImportBatchSize;
+        int window = Math.max(mImportWindow, batchSize);
+        try (BlobUploader uploader = new BlobUploader(
+                mVContext, mDB, mUploadParallelism, mUploadBytesInFlight)) {
+            Deque<ListenableFuture<String>> uploads = new ArrayDeque<>(window);
+            int queued = 0;
+            int start = 0;
+            try {
+                do {
+                    int end = Math.min(start + batchSize, slides.size());
+                    for (; queued < slides.size() && queued < start + window; queued++) {
+                        uploads.add(uploader.upload(SlideKeys.encode(deckId, queued),
+                                slides.get(queued).getImage()));
+                    }
+                    List<ListenableFuture<String>> batchUploads = Lists.newArrayList();
+                    for (int i = start; i < end; i++) {
+                        batchUploads.add(uploads.remove());
+                    }
+                    List<String> blobRefs = sync(Futures.allAsList(batchUploads));
+                    writeSlideBatch(deckId, vDeck, slides, start, end, blobRefs);
+                    start = end;
+                } while (start < slides.size());
+            } catch (VException e) {
+                if (start > 0) {
+                    deleteUnfinishedImport(deckId);
+                }
+                throw e;
+            }
+            Log.i(TAG, "Uploaded images for deck " + deckId + ": " + uploader.getThroughput());
+        }
+    }
+
+    private void writeSlideBatch(String deckId, VDeck vDeck, List<? extends SlideSource> slides,
+                                 int start, int end, List<String> blobRefs)
+            throws VException {
+        BatchDatabase batch = sync(timed("beginBatch", null, mDB.beginBatch(mVContext, null)));
+        try {
+            Table decks = batch.getTable(DECKS_TABLE);
+            Table notes = batch.getTable(NOTES_TABLE);
+            List<ListenableFuture<Void>> puts = Lists.newArrayList();
+            for (int i = start; i < end; i++) {
+                String key = SlideKeys.encode(deckId, i);
+                Log.i(TAG, "Adding slide " + key);
+                SlideSource slide = slides.get(i);
+                byte[] thumbData;
+                try {
+                    thumbData = slide.getThumb().read();
+                } catch (IOException e) {
+                    throw new VException("Couldn't read thumbnail for " + key + ": " +
+                            e.getMessage());
+                }
+                VSlide vSlide = new VSlide(thumbData, blobRefs.get(i - start));
+                puts.add(timed("put", DECKS_TABLE,
+                        decks.put(mVContext, key, vSlide, VSlide.class)));
+                // Notes are sparse; see putSlide.
+                String text = slide.getNotes();
+                if (text != null && !text.isEmpty()) {
+                    puts.add(timed("put", NOTES_TABLE, notes.put(
+                            mVContext, key, new VNote(text), VNote.class)));
+                }
+            }
+            if (end == slides.size()) {
+                puts.add(timed("put", DECKS_TABLE,
+                        decks.put(mVContext, deckId, vDeck, VDeck.class)));
+                puts.add(timed("put", NOTES_TABLE, notes.put(mVContext,
+                        NamingUtil.join(deckId, "LastViewed"),
+                        System.currentTimeMillis(), Long.class)));
+                puts.add(timed("put", DECK_INDEX_TABLE, batch.getTable(DECK_INDEX_TABLE)
+                        .put(mVContext, deckId, vDeck, VDeck.class)));
+            }
+            sync(Futures.allAsList(puts));
+            sync(timed("commit", null, batch.commit(mVContext)));
+        } catch (VException e) {
+            batch.abort(mVContext);
+            throw e;
+        }
+    }
+
+    /**
+     * Deletes the slide rows that an import committed before it failed.  The deck has no
+     * Decks or DeckIndex row yet, so nothing else refers to them.  Failures are only
+     * logged; the rows are invisible either way.
+     */
+    private void deleteUnfinishedImport(String deckId) {
+        String children = deckId + "/";
+        try {
+            BatchDatabase batch = sync(timed("beginBatch", null,
+                    mDB.beginBatch(mVContext, null)));
+            try {
+                sync(Futures.allAsList(
+                        timed("deleteRange", DECKS_TABLE, batch.getTable(DECKS_TABLE)
+                                .deleteRange(mVContext, RowRange.prefix(children))),
+                        timed("deleteRange", NOTES_TABLE, batch.getTable(NOTES_TABLE)
+                                .deleteRange(mVContext, RowRange.prefix(children)))));
+                sync(timed("commit", null, batch.commit(mVContext)));
+            } catch (VException e) {
+                batch.abort(mVContext);
+                throw e;
+            }
+        } catch (VException e) {
+            Log.e(TAG, "Couldn't delete the rows of unfinished import " + deckId + ": " + e);
+        }
+    }
+
+    /**
+     * A SlideSource for a slide that is already in memory.
+     */
+    private static class LoadedSlide implements SlideSource {
+        private final Slide mSlide;
+
+        LoadedSlide(Slide slide) {
+            mSlide = slide;
+        }
+
+        @Override
+        public ByteSource getThumb() {
+            return ByteSource.wrap(mSlide.getThumbData());
+        }
+
+        @Override
+        public ByteSource getImage() {
+            return ByteSource.wrap(mSlide.getImageData());
+        }
+
+        @Override
+        public String getNotes() {
+            return mSlide.getNotes();
+        }
+    }
+}
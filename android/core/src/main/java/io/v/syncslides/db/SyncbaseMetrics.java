@@ -0,0 +1,193 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.syncslides.db;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records how long Syncbase operations take, per operation and table.  Recording is
+ * lock-free so that it can be done on every call, including on the main thread.
+ *
+ * Use {@link #report} to show the numbers, e.g. in a debug screen, or
+ * {@link #writeReport} to save them to a file.
+ */
+public class SyncbaseMetrics {
+    public static class Singleton {
+        private static volatile SyncbaseMetrics instance;
+
+        public static SyncbaseMetrics get() {
+            SyncbaseMetrics result = instance;
+            if (instance == null) {
+                synchronized (Singleton.class) {
+                    result = instance;
+                    if (result == null) {
+                        instance = result = new SyncbaseMetrics();
+                    }
+                }
+            }
+            return result;
+        }
+    }
+
+    private final ConcurrentMap<String, Histogram> mHistograms = Maps.newConcurrentMap();
+    private volatile long mStartNanos = System.nanoTime();
+
+    SyncbaseMetrics() {
+    }
+
+    /**
+     * Records the latency of {@code future} under {@code op} and {@code table} when it
+     * completes, successfully or not.
+     *
+     * @param table the table that the operation is on or null if there is none
+     * @return {@code future}
+     */
+    static <T> ListenableFuture<T> timed(String op, String table, ListenableFuture<T> future) {
+        final long startNanos = System.nanoTime();
+        final Histogram histogram = Singleton.get().histogram(op, table);
+        future.addListener(() -> histogram.record(System.nanoTime() - startNanos),
+                MoreExecutors.directExecutor());
+        return future;
+    }
+
+    /**
+     * Records an operation under {@code op} and {@code table} that started at
+     * {@code startNanos}, a value of {@link System#nanoTime}, and has just finished.
+     *
+     * @param table the table that the operation is on or null if there is none
+     */
+    static void record(String op, String table, long startNanos) {
+        Singleton.get().histogram(op, table).record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Forgets everything that has been recorded.
+     */
+    public void reset() {
+        mHistograms.clear();
+        mStartNanos = System.nanoTime();
+    }
+
+    /**
+     * Returns a table with one line per operation and table, with the count, the rate and
+     * latency percentiles in milliseconds.  The percentiles are the upper bounds of the
+     * histogram buckets that they fall into.
+     */
+    public String report() {
+        double seconds = (System.nanoTime() - mStartNanos) / 1e9;
+        StringBuilder result = new StringBuilder();
+        result.append(String.format("%-32s %8s %8s %8s %8s %8s %8s %8s%n",
+                "operation", "count", "ops/s", "avg", "p50", "p90", "p99", "max"));
+        List<String> keys = Lists.newArrayList(mHistograms.keySet());
+        Collections.sort(keys);
+        for (String key : keys) {
+            Histogram h = mHistograms.get(key);
+            long count = h.getCount();
+            if (count == 0) {
+                continue;
+            }
+            result.append(String.format("%-32s %8d %8.1f %8.1f %8.1f %8.1f %8.1f %8.1f%n",
+                    key, count, count / seconds, h.getTotalMicros() / 1000.0 / count,
+                    h.percentileMicros(0.5) / 1000.0, h.percentileMicros(0.9) / 1000.0,
+                    h.percentileMicros(0.99) / 1000.0, h.getMaxMicros() / 1000.0));
+        }
+        return result.toString();
+    }
+
+    /**
+     * Writes {@link #report} to {@code file}, replacing its contents.
+     */
+    public void writeReport(File file) throws IOException {
+        try (Writer out = new FileWriter(file)) {
+            out.write(report());
+        }
+    }
+
+    private Histogram histogram(String op, String table) {
+        String key = table == null ? op : op + " " + table;
+        Histogram histogram = mHistograms.get(key);
+        if (histogram == null) {
+            Histogram newHistogram = new Histogram();
+            histogram = mHistograms.putIfAbsent(key, newHistogram);
+            if (histogram == null) {
+                histogram = newHistogram;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * A latency histogram with power-of-two buckets in microseconds.  Bucket i counts
+     * latencies below 2^i microseconds that don't fit a smaller bucket.
+     */
+    static class Histogram {
+        private static final int NUM_BUCKETS = 40;
+
+        private final AtomicLongArray mBuckets = new AtomicLongArray(NUM_BUCKETS);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mTotalMicros = new AtomicLong();
+        private final AtomicLong mMaxMicros = new AtomicLong();
+
+        void record(long nanos) {
+            long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+            int bucket = Math.min(64 - Long.numberOfLeadingZeros(micros), NUM_BUCKETS - 1);
+            mBuckets.incrementAndGet(bucket);
+            mCount.incrementAndGet();
+            mTotalMicros.addAndGet(micros);
+            long max = mMaxMicros.get();
+            while (micros > max && !mMaxMicros.compareAndSet(max, micros)) {
+                max = mMaxMicros.get();
+            }
+        }
+
+        long getCount() {
+            return mCount.get();
+        }
+
+        long getTotalMicros() {
+            return mTotalMicros.get();
+        }
+
+        long getMaxMicros() {
+            return mMaxMicros.get();
+        }
+
+        /**
+         * Returns the upper bound of the bucket that the {@code fraction} percentile
+         * falls into, or the maximum if that is lower.
+         */
+        long percentileMicros(double fraction) {
+            long[] counts = new long[NUM_BUCKETS];
+            long total = 0;
+            for (int i = 0; i < NUM_BUCKETS; i++) {
+                counts[i] = mBuckets.get(i);
+                total += counts[i];
+            }
+            long target = (long) Math.ceil(total * fraction);
+            long seen = 0;
+            for (int i = 0; i < NUM_BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= target && seen > 0) {
+                    return Math.min(1L << i, getMaxMicros());
+                }
+            }
+            return getMaxMicros();
+        }
+    }
+}
@@ -0,0 +1,205 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.syncslides.db;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+
+import org.joda.time.Duration;
+
+import java.util.concurrent.TimeUnit;
+
+import io.v.syncslides.lib.Dispatcher;
+import io.v.syncslides.lib.Dispatchers;
+import io.v.syncslides.lib.Log;
+import io.v.syncslides.model.DynamicList;
+import io.v.syncslides.model.Session;
+import io.v.syncslides.model.Slide;
+import io.v.v23.context.CancelableVContext;
+import io.v.v23.context.VContext;
+import io.v.v23.syncbase.nosql.Database;
+import io.v.v23.syncbase.nosql.Table;
+import io.v.v23.verror.VException;
+
+import static io.v.syncslides.db.SyncbaseMetrics.timed;
+import static io.v.v23.VFutures.sync;
+
+/**
+ * SyncbaseSession gets its session state from Syncbase.
+ */
+class SyncbaseSession implements Session {
+    private static final String TAG = "SyncbaseSession";
+    /**
+     * The user wants to follow a live presentation or hasn't yet chosen a slide to view.
+     */
+    static final int INVALID_LOCAL_SLIDE_NUM = -1;
+    private static final long UNINITIALIZED_TIME = 0;
+    /**
+     * Minimum time between two writes of the VSession by {@link #saveLater}.
+     */
+    private static final long MIN_SAVE_INTERVAL_MS = 500;
+
+    private final VContext mVContext;
+    private final Database mDb;
+    private final WatchHub mHub;
+    private final String mId;
+    private final VSession mVSession;
+    private final SlideNumberWatcher mSlideNumberWatcher;
+    private final DynamicList<Slide> mSlides;
+    private final NotesWriter mNotesWriter;
+    private final Dispatcher mDispatcher = Dispatchers.mainThread();
+    private final Runnable mSaveRunnable = this::saveNow;
+    // The following are only used on the main thread.
+    private boolean mSaveScheduled;
+    private boolean mSaveInFlight;
+    private boolean mDirty;
+    // Running since the last save started.
+    private final Stopwatch mSinceSave = Stopwatch.createUnstarted();
+
+    SyncbaseSession(VContext vContext, Database db, WatchHub hub, String id, String deckId,
+                    DynamicList<Slide> slides) {
+        this(vContext, db, hub, id,
+                new VSession(deckId, null, INVALID_LOCAL_SLIDE_NUM, UNINITIALIZED_TIME), slides);
+    }
+
+    SyncbaseSession(VContext vContext, Database db, WatchHub hub, String id, VSession vSession,
+                    DynamicList<Slide> slides) {
+        mVContext = vContext;
+        mDb = db;
+        mHub = hub;
+        mId = id;
+        mVSession = vSession;
+        mSlideNumberWatcher = new SlideNumberWatcher(mVContext, mDb, mHub, id,
+                mVSession.getDeckId(), mVSession.getPresentationId());
+        mSlides = slides;
+        mNotesWriter = new NotesWriter(mVContext, mDb);
+    }
+
+    @Override
+    public String getId() {
+        return mId;
+    }
+
+    @Override
+    public String getDeckId() {
+        return mVSession.getDeckId();
+    }
+
+    @Override
+    public String getPresentationId() {
+        return mVSession.getPresentationId();
+    }
+
+    @Override
+    public void setLocalSlideNum(int slideNum) throws VException {
+        // TODO(kash): if the user is driving, this should update the presentation state instead.
+        mVSession.setLocalSlide(slideNum);
+        mSlideNumberWatcher.setLocalSlideNum(slideNum);
+        saveLater();
+    }
+
+    @Override
+    public void addSlideNumberListener(SlideNumberListener listener) {
+        mSlideNumberWatcher.addListener(listener);
+    }
+
+    @Override
+    public void removeSlideNumberListener(SlideNumberListener listener) {
+        mSlideNumberWatcher.removeListener(listener);
+    }
+
+    @Override
+    public DynamicList<Slide> getSlides() {
+        return mSlides;
+    }
+
+    @Override
+    public void setNotes(int slideNum, String notes) {
+        // Slides can be inserted and moved, so the key doesn't follow from slideNum.
+        Slide slide = mSlides.get(slideNum);
+        String rowKey = slide.getId();
+        if (!mNotesWriter.hasPending(rowKey) && notes.equals(slide.getNotes())) {
+            return;
+        }
+        mNotesWriter.write(rowKey, notes);
+    }
+
+    @Override
+    public void flush() {
+        mNotesWriter.flush();
+        if (mSaveScheduled) {
+            mDispatcher.removeCallbacks(mSaveRunnable);
+            saveNow();
+        }
+    }
+
+    /**
+     * Persists the VSession to the UI_TABLE in the background.  Must be called on the main
+     * thread.  Calls in quick succession are coalesced: at most one write is in flight,
+     * writes are at least {@link #MIN_SAVE_INTERVAL_MS} apart, and only the latest state
+     * is written.
+     */
+    private void saveLater() {
+        mDirty = true;
+        if (mSaveScheduled || mSaveInFlight) {
+            return;
+        }
+        mSaveScheduled = true;
+        long wait = mSinceSave.isRunning() ?
+                MIN_SAVE_INTERVAL_MS - mSinceSave.elapsed(TimeUnit.MILLISECONDS) : 0;
+        mDispatcher.postDelayed(mSaveRunnable, Math.max(0, wait));
+    }
+
+    // Runs on the main thread.
+    private void saveNow() {
+        mSaveScheduled = false;
+        mDirty = false;
+        mSaveInFlight = true;
+        mSinceSave.reset().start();
+        mVSession.setLastTouched(System.currentTimeMillis());
+        // Write a copy, since mVSession keeps changing while the put is in flight.
+        VSession copy = new VSession(mVSession.getDeckId(), mVSession.getPresentationId(),
+                mVSession.getLocalSlide(), mVSession.getLastTouched());
+        Table ui = mDb.getTable(SyncbaseDB.UI_TABLE);
+        CancelableVContext context = mVContext.withTimeout(Duration.millis(5000));
+        Futures.addCallback(
+                timed("put", SyncbaseDB.UI_TABLE, ui.put(context, mId, copy, VSession.class)),
+                new FutureCallback<Void>() {
+                    @Override
+                    public void onSuccess(Void result) {
+                        mDispatcher.post(() -> saveDone());
+                    }
+
+                    @Override
+                    public void onFailure(Throwable t) {
+                        Log.e(TAG, "Couldn't save session " + mId, t);
+                        mDispatcher.post(() -> saveDone());
+                    }
+                });
+    }
+
+    // Runs on the main thread.
+    private void saveDone() {
+        mSaveInFlight = false;
+        if (mDirty) {
+            mDirty = false;
+            saveLater();
+        }
+    }
+
+    /**
+     * Persists the VSession to the UI_TABLE and waits for the write.
+     *
+     * @throws VException when the Syncbase put() fails
+     */
+    void save() throws VException {
+        mVSession.setLastTouched(System.currentTimeMillis());
+        Table ui = mDb.getTable(SyncbaseDB.UI_TABLE);
+        CancelableVContext context = mVContext.withTimeout(Duration.millis(5000));
+        sync(timed("put", SyncbaseDB.UI_TABLE,
+                ui.put(context, mId, mVSession, VSession.class)));
+    }
+}
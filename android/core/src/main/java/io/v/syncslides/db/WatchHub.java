@@ -0,0 +1,511 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.syncslides.db;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.lang.reflect.Type;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import io.v.syncslides.lib.Log;
+import io.v.v23.InputChannels;
+import io.v.v23.VIterable;
+import io.v.v23.context.CancelableVContext;
+import io.v.v23.context.VContext;
+import io.v.v23.services.watch.ResumeMarker;
+import io.v.v23.syncbase.nosql.ChangeType;
+import io.v.v23.syncbase.nosql.Database;
+import io.v.v23.syncbase.nosql.WatchChange;
+import io.v.v23.verror.VException;
+import io.v.v23.vom.VomUtil;
+
+import static io.v.syncslides.db.SyncbaseMetrics.timed;
+import static io.v.v23.VFutures.sync;
+
+/**
+ * Multiplexes Syncbase watch streams.  WatchHub keeps at most one watch stream per table,
+ * no matter how many watchers are interested in that table, and routes each change to
+ * the subscriptions whose prefix matches the row key.  Every subscriber of a live change
+ * sees the same {@link Change} object, so its value is decoded at most once.
+ *
+ * A table's stream is started when it gets its first subscription and is cancelled when
+ * it loses its last one.  WatchHub remembers the last {@value #HISTORY_SIZE} changes of
+ * each table, or fewer if their values add up to more than {@value #HISTORY_BYTES} bytes,
+ * so a watcher that detached can {@link #resume} from the marker it last saw instead of
+ * reading everything again.  The history keeps only the encoded changes; replayed
+ * changes are decoded again.  If the stream is restarted within
+ * {@link #RESUME_WINDOW_MS} of stopping, it continues from where it stopped so that the
+ * history has no gaps.  A stream that has no history to continue, for example after a
+ * cold start, starts at the marker of the first resuming subscriber, so markers that
+ * were saved to disk can be resumed too.
+ *
+ * To avoid missing changes, a watcher should subscribe before it reads the initial
+ * state of its data.  The subscription might then deliver changes that are already
+ * reflected in that initial state, but they are delivered in order, so applying them
+ * again ends in the same state.
+ */
+class WatchHub {
+    private static final String TAG = "WatchHub";
+    /**
+     * Queued after the last change of a Subscription.
+     */
+    private static final Object END_OF_STREAM = new Object();
+    /**
+     * How long after a table's stream stops that its history can still be extended
+     * by restarting the stream where it left off.
+     */
+    static final long RESUME_WINDOW_MS = 5 * 60 * 1000;
+    /**
+     * The number of changes per table that are kept for {@link #resume}.
+     */
+    static final int HISTORY_SIZE = 1000;
+    /**
+     * The most bytes of encoded values per table that are kept for {@link #resume}.
+     * Slides carry thumbnails, so a full history of them would be large.
+     */
+    static final long HISTORY_BYTES = 1024 * 1024;
+    /**
+     * Runs the tables' watch streams, at most one per table.  They get threads of their
+     * own rather than WatchScheduler's: the loops there block on subscriptions, so if
+     * they took every thread, no stream could start and none of them would ever wake up.
+     */
+    private static final ExecutorService sStreamExecutor = Executors.newCachedThreadPool(
+            runnable -> {
+                Thread thread = new Thread(runnable, TAG);
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private final VContext mBaseContext;
+    private final Database mDb;
+    private final Map<String, TableStream> mStreams;
+
+    WatchHub(VContext context, Database db) {
+        mBaseContext = context;
+        mDb = db;
+        mStreams = Maps.newHashMap();
+    }
+
+    /**
+     * Subscribes to all changes to rows in {@code table} whose key starts with
+     * {@code prefix}.  Changes made after this method returns are guaranteed to be
+     * delivered.  The caller must close the subscription when it is done with it.
+     *
+     * @throws VException if the table's watch stream could not be started
+     */
+    Subscription subscribe(String table, String prefix) throws VException {
+        return subscribe(ImmutableList.of(table), prefix);
+    }
+
+    /**
+     * Like {@link #subscribe(String, String)}, but for the same prefix of several tables.
+     * The changes of all of the tables are delivered by the one subscription, each
+     * table's in order.  This lets a watcher of more than one table use a single thread.
+     */
+    Subscription subscribe(List<String> tables, String prefix) throws VException {
+        return open(tables, prefix, Collections.<String, ResumeMarker>emptyMap());
+    }
+
+    /**
+     * Like {@link #subscribe(String, String)}, but the subscription starts right after {@code since},
+     * a marker previously returned by {@link Change#getResumeMarker} or
+     * {@link Subscription#getStartMarker}.  Changes made since then are replayed from
+     * the table's history.
+     *
+     * @return the subscription or null if the history no longer reaches back to
+     *         {@code since}, in which case the caller has to read its data from scratch
+     * @throws VException if the table's watch stream could not be started
+     */
+    Subscription resume(String table, String prefix, ResumeMarker since) throws VException {
+        return resume(ImmutableMap.of(table, since), prefix);
+    }
+
+    /**
+     * Like {@link #resume(String, String, ResumeMarker)}, but for the same prefix of
+     * several tables, each starting right after its own marker in {@code since}.
+     *
+     * @return the subscription or null if any of the tables can't be resumed
+     */
+    Subscription resume(Map<String, ResumeMarker> since, String prefix) throws VException {
+        return open(since.keySet(), prefix, since);
+    }
+
+    private Subscription open(Collection<String> tables, String prefix,
+                              Map<String, ResumeMarker> since) throws VException {
+        Subscription subscription = new Subscription(prefix);
+        try {
+            for (String table : tables) {
+                long start = System.nanoTime();
+                boolean attached = getStream(table).attach(subscription, since.get(table));
+                SyncbaseMetrics.record("watchSetup", table, start);
+                if (!attached) {
+                    subscription.close();
+                    return null;
+                }
+            }
+        } catch (VException e) {
+            subscription.close();
+            throw e;
+        }
+        return subscription;
+    }
+
+    private synchronized TableStream getStream(String table) {
+        TableStream stream = mStreams.get(table);
+        if (stream == null) {
+            stream = new TableStream(table);
+            mStreams.put(table, stream);
+        }
+        return stream;
+    }
+
+    /**
+     * A single change from a watch stream, shared by every subscription that it matches.
+     */
+    static class Change {
+        private final WatchChange mChange;
+        private Type mValueType;
+        private Object mValue;
+
+        private Change(WatchChange change) {
+            mChange = change;
+        }
+
+        String getTableName() {
+            return mChange.getTableName();
+        }
+
+        String getRowName() {
+            return mChange.getRowName();
+        }
+
+        ChangeType getChangeType() {
+            return mChange.getChangeType();
+        }
+
+        ResumeMarker getResumeMarker() {
+            return mChange.getResumeMarker();
+        }
+
+        /**
+         * Returns the value of a PUT_CHANGE decoded as {@code type}.  The result is cached
+         * so that other subscribers decoding the same change don't pay for it again.
+         */
+        synchronized Object decode(Type type) throws VException {
+            if (type.equals(mValueType)) {
+                return mValue;
+            }
+            mValue = VomUtil.decode(mChange.getVomValue(), type);
+            mValueType = type;
+            return mValue;
+        }
+    }
+
+    /**
+     * Returns roughly how much memory {@code change} takes up in a history.  Only the
+     * parts that vary much are counted.
+     */
+    private static long historyBytes(WatchChange change) {
+        byte[] value = change.getVomValue();
+        return (value == null ? 0 : value.length) + 2 * change.getRowName().length();
+    }
+
+    /**
+     * An ordered stream of changes to a prefix of one or more tables.  Iterating blocks until
+     * the next change arrives.  Iteration ends when the subscription is closed, when the
+     * iterating thread is interrupted or when the underlying watch stream fails, in
+     * which case {@link #error} returns the reason.
+     */
+    class Subscription implements Iterable<Change> {
+        private final String mPrefix;
+        private final List<TableStream> mStreams;
+        private final Map<String, ResumeMarker> mStartMarkers;
+        private final BlockingQueue<Object> mQueue;
+        private volatile VException mError;
+        private volatile boolean mClosed;
+
+        private Subscription(String prefix) {
+            mPrefix = prefix;
+            mStreams = new CopyOnWriteArrayList<>();
+            mStartMarkers = Maps.newConcurrentMap();
+            mQueue = new LinkedBlockingQueue<>();
+        }
+
+        /**
+         * Returns the position in {@code table} that this subscription starts from.
+         * Every change to the table after it is delivered.
+         */
+        ResumeMarker getStartMarker(String table) {
+            return mStartMarkers.get(table);
+        }
+
+        /**
+         * Stops delivery of changes.  Safe to call more than once and from any thread.
+         */
+        void close() {
+            // Detach even if a failed stream already ended the subscription, so that
+            // the other streams don't keep running for it.
+            for (TableStream stream : mStreams) {
+                stream.remove(this);
+            }
+            mStreams.clear();
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            mQueue.add(END_OF_STREAM);
+        }
+
+        /**
+         * Returns the error that ended the subscription or null if it ended normally.
+         */
+        VException error() {
+            return mError;
+        }
+
+        @Override
+        public Iterator<Change> iterator() {
+            return new Iterator<Change>() {
+                private Object mNext;
+
+                @Override
+                public boolean hasNext() {
+                    if (mNext == null) {
+                        try {
+                            mNext = mQueue.take();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            close();
+                            mNext = END_OF_STREAM;
+                        }
+                    }
+                    return mNext != END_OF_STREAM;
+                }
+
+                @Override
+                public Change next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    Change change = (Change) mNext;
+                    mNext = null;
+                    return change;
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        private void offer(Change change) {
+            if (!mClosed && change.getRowName().startsWith(mPrefix)) {
+                mQueue.add(change);
+            }
+        }
+
+        private void fail(VException e) {
+            mError = e;
+            mClosed = true;
+            mQueue.add(END_OF_STREAM);
+        }
+    }
+
+    /**
+     * The single watch stream for one table, plus a bounded history of its most recent
+     * changes for {@link #resume}.
+     */
+    private class TableStream {
+        private final String mTable;
+        // All of the following are guarded by this.
+        private final List<Subscription> mSubscriptions;
+        private final ArrayDeque<WatchChange> mHistory;
+        // The bytes of the rows in mHistory.  See historyBytes.
+        private long mHistoryBytes;
+        // The position just before the first change in mHistory.
+        private ResumeMarker mBaseMarker;
+        // The position just after the last change in mHistory.  Null if there is no
+        // usable history.
+        private ResumeMarker mLastMarker;
+        // Running since the stream was last stopped.
+        private final Stopwatch mSinceStop = Stopwatch.createUnstarted();
+        // Non-null while the stream is running.
+        private CancelableVContext mStreamContext;
+
+        TableStream(String table) {
+            mTable = table;
+            mSubscriptions = Lists.newArrayList();
+            mHistory = new ArrayDeque<>();
+        }
+
+        /**
+         * Starts delivering changes to {@code subscription} from {@code since}, or from
+         * the current position if {@code since} is null.
+         *
+         * @return false if {@code since} is not in the history
+         */
+        synchronized boolean attach(Subscription subscription, ResumeMarker since)
+                throws VException {
+            if (mStreamContext == null) {
+                start(since);
+            }
+            List<Change> replay = Collections.emptyList();
+            if (since == null) {
+                since = mLastMarker;
+            } else if (!since.equals(mLastMarker)) {
+                replay = changesSince(since);
+                if (replay == null) {
+                    Log.d(TAG, "Can't resume watch of " + mTable + "; marker is too old");
+                    if (mSubscriptions.isEmpty()) {
+                        stop();
+                    }
+                    return false;
+                }
+            }
+            subscription.mStartMarkers.put(mTable, since);
+            subscription.mStreams.add(this);
+            for (Change change : replay) {
+                subscription.offer(change);
+            }
+            mSubscriptions.add(subscription);
+            return true;
+        }
+
+        synchronized void remove(Subscription subscription) {
+            mSubscriptions.remove(subscription);
+            if (mSubscriptions.isEmpty() && mStreamContext != null) {
+                stop();
+            }
+        }
+
+        /**
+         * Starts the stream.  If there is no history to continue, the stream starts at
+         * {@code since}, so that the first subscriber can resume from it, or else at the
+         * current state of the database.
+         */
+        private void start(ResumeMarker since) throws VException {
+            CancelableVContext context = mBaseContext.withCancel();
+            ResumeMarker marker = mLastMarker;
+            if (marker == null ||
+                    mSinceStop.elapsed(TimeUnit.MILLISECONDS) > RESUME_WINDOW_MS) {
+                marker = since;
+                if (marker == null) {
+                    try {
+                        marker = sync(timed("getResumeMarker", null,
+                                mDb.getResumeMarker(context)));
+                    } catch (VException e) {
+                        context.cancel();
+                        throw e;
+                    }
+                }
+                clearHistory();
+                mBaseMarker = marker;
+                mLastMarker = marker;
+            }
+            // Otherwise, pick up where the previous stream left off so that the history
+            // stays complete.
+            mStreamContext = context;
+            final ResumeMarker from = marker;
+            sStreamExecutor.execute(() -> run(context, from));
+        }
+
+        private void stop() {
+            Log.d(TAG, "Stopping watch of " + mTable);
+            mStreamContext.cancel();
+            mStreamContext = null;
+            mSinceStop.reset().start();
+        }
+
+        /**
+         * Returns the changes in the history after {@code since} or null if the history
+         * doesn't reach back that far.
+         */
+        private List<Change> changesSince(ResumeMarker since) {
+            List<Change> result = since.equals(mBaseMarker) ? Lists.<Change>newArrayList() : null;
+            for (WatchChange change : mHistory) {
+                if (result != null) {
+                    result.add(new Change(change));
+                } else if (since.equals(change.getResumeMarker())) {
+                    result = Lists.newArrayList();
+                }
+            }
+            return result;
+        }
+
+        private void addToHistory(WatchChange change) {
+            mHistory.addLast(change);
+            mHistoryBytes += historyBytes(change);
+            while (mHistory.size() > HISTORY_SIZE || mHistoryBytes > HISTORY_BYTES) {
+                WatchChange dropped = mHistory.removeFirst();
+                mHistoryBytes -= historyBytes(dropped);
+                mBaseMarker = dropped.getResumeMarker();
+            }
+        }
+
+        private void clearHistory() {
+            mHistory.clear();
+            mHistoryBytes = 0;
+        }
+
+        // Runs in a background thread.
+        private void run(CancelableVContext context, ResumeMarker marker) {
+            Log.d(TAG, "Starting watch of " + mTable);
+            VIterable<WatchChange> changes = InputChannels.asIterable(
+                    mDb.watch(context, mTable, "", marker));
+            for (WatchChange change : changes) {
+                synchronized (this) {
+                    if (mStreamContext != context) {
+                        // Cancelled.
+                        return;
+                    }
+                    // Only the encoded change is kept, so the decoded value can be
+                    // collected once the subscribers are done with it.
+                    Change shared = new Change(change);
+                    addToHistory(change);
+                    mLastMarker = shared.getResumeMarker();
+                    for (Subscription subscription : mSubscriptions) {
+                        subscription.offer(shared);
+                    }
+                }
+            }
+            VException error = changes.error();
+            if (error == null) {
+                error = new VException("Watch of " + mTable + " ended unexpectedly");
+            }
+            synchronized (this) {
+                if (mStreamContext != context) {
+                    // Cancelled on purpose.  The error is just the cancellation.
+                    return;
+                }
+                Log.e(TAG, "Watch of " + mTable + " failed: " + error);
+                mStreamContext = null;
+                // The stream may have missed changes, so the history can't be trusted.
+                clearHistory();
+                mLastMarker = null;
+                for (Subscription subscription : mSubscriptions) {
+                    subscription.fail(error);
+                }
+                mSubscriptions.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,575 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.syncslides.db;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import io.v.syncslides.lib.Dispatcher;
+import io.v.syncslides.lib.Dispatchers;
+import io.v.syncslides.lib.Log;
+import io.v.syncslides.lib.WatchScheduler;
+import io.v.syncslides.model.DynamicList;
+import io.v.syncslides.model.ListListener;
+import io.v.v23.context.CancelableVContext;
+import io.v.v23.context.VContext;
+import io.v.v23.services.watch.ResumeMarker;
+
+/**
+ * WatchedList manages an in-memory copy of data that is in syncbase.  The Watcher
+ * passed to the WatchedList constructor contains the logic for fetching the
+ * actual data from syncbase and sorting it appropriately.  WatchedList keeps
+ * track of the data and listeners and notifies the listeners when the data
+ * changes.
+ *
+ * Changes from the Watcher are not applied one at a time.  They are queued and
+ * applied in batches of roughly one frame, and listeners are notified with ranges
+ * where possible.  The initial data set is applied as a single batch.
+ *
+ * When the last listener is removed, the Watcher is stopped but the data and the
+ * resume markers it had reached are kept for a retention window.  If a listener is
+ * added within that window, the new listener sees the kept data immediately and the
+ * Watcher only has to catch up on the changes made in the meantime.
+ *
+ * If the WatchedList has a {@link ListSnapshot}, the data and resume markers are also
+ * saved to a file from time to time.  After a cold start, the list is first filled from
+ * that file and then brought up to date the same way.  If the Watcher fails after resuming
+ * from the file's markers but before it delivers any change, Syncbase most likely
+ * rejected the markers, e.g. because the database was recreated.  The file is then
+ * cleared and the Watcher loads everything again.
+ */
+class WatchedList<E> implements DynamicList<E> {
+    private static final String TAG = "WatchedList";
+    /**
+     * How long to collect changes before applying them.  Roughly one frame at 60fps.
+     */
+    private static final long BATCH_DELAY_MS = 16;
+    /**
+     * How long to keep the data after the last listener is removed.
+     */
+    static final long DEFAULT_RETENTION_MS = 2 * 60 * 1000;
+    /**
+     * How long to wait after a change before saving the snapshot.  Changes in the
+     * meantime are saved along with it.
+     */
+    private static final long SNAPSHOT_DELAY_MS = 10 * 1000;
+
+    private final VContext mBaseContext;
+    private final Set<ListListener> mListeners;
+    private final Dispatcher mDispatcher;
+    private final Watcher mWatcher;
+    private final SortedArrayList<E> mElems;
+    private final RangeNotifier mNotifier;
+    // The markers that mElems is up to date with, by table.
+    private final Map<String, ResumeMarker> mResumeMarkers;
+    private final Runnable mExpire;
+    private final ListSnapshot<E> mSnapshot;
+    private final Runnable mSave;
+    private boolean mSavePending;
+    private long mRetentionMs;
+    private CancelableVContext mCurrentContext;
+    private Future<?> mWatchFuture;
+    private volatile BatchingListener mBatchingListener;
+
+    WatchedList(VContext context, Watcher watcher) {
+        this(context, watcher, null);
+    }
+
+    /**
+     * @param snapshot where to save the data for the next cold start, or null
+     */
+    WatchedList(VContext context, Watcher watcher, ListSnapshot<E> snapshot) {
+        this(context, watcher, snapshot, Dispatchers.mainThread());
+    }
+
+    /**
+     * @param context the parent of the contexts passed to {@code watcher}.  If null, the
+     *                watcher gets a null context and is stopped by interruption alone;
+     *                this is for watchers that don't use Syncbase.
+     * @param snapshot where to save the data for the next cold start, or null
+     * @param dispatcher where listeners are notified and the data is changed
+     */
+    WatchedList(VContext context, Watcher watcher, ListSnapshot<E> snapshot,
+                Dispatcher dispatcher) {
+        mListeners = Sets.newHashSet();
+        mBaseContext = context;
+        mDispatcher = dispatcher;
+        mWatcher = watcher;
+        mElems = new SortedArrayList<E>(watcher);
+        mNotifier = new RangeNotifier();
+        mResumeMarkers = Maps.newHashMap();
+        mExpire = this::expire;
+        mSnapshot = snapshot;
+        mSave = this::save;
+        mRetentionMs = DEFAULT_RETENTION_MS;
+    }
+
+    /**
+     * Sets how long to keep the data after the last listener is removed.  Zero
+     * releases it right away.
+     */
+    void setRetention(long retentionMs) {
+        mRetentionMs = retentionMs;
+    }
+
+    /**
+     * Returns the snapshot passed to the constructor, or null.
+     */
+    ListSnapshot<E> getSnapshot() {
+        return mSnapshot;
+    }
+
+    @Override
+    public int getItemCount() {
+        return mElems.size();
+    }
+
+    @Override
+    public E get(int i) {
+        return mElems.get(i);
+    }
+
+    @Override
+    public void addListener(final ListListener listener) {
+        mListeners.add(listener);
+        if (mListeners.size() == 1) {
+            // First listener.  Start the thread, resuming from the kept data if possible.
+            mDispatcher.removeCallbacks(mExpire);
+            final Map<String, ResumeMarker> resumeMarkers =
+                    mResumeMarkers.isEmpty() ? null : ImmutableMap.copyOf(mResumeMarkers);
+            final boolean loadSnapshot = mSnapshot != null && resumeMarkers == null;
+            final CancelableVContext context =
+                    mBaseContext == null ? null : mBaseContext.withCancel();
+            final BatchingListener batchingListener = new BatchingListener();
+            mCurrentContext = context;
+            mBatchingListener = batchingListener;
+            try {
+                mWatchFuture = WatchScheduler.Singleton.get().submit(
+                        mWatcher.getClass().getSimpleName(), () -> {
+                            Map<String, ResumeMarker> markers = resumeMarkers;
+                            if (loadSnapshot) {
+                                markers = batchingListener.loadSnapshot(mSnapshot);
+                            }
+                            mWatcher.watch(context, markers, batchingListener);
+                            if (batchingListener.isSnapshotRejected() &&
+                                    mBatchingListener == batchingListener) {
+                                Log.w(TAG, "Couldn't resume from the snapshot; " +
+                                        "loading everything");
+                                mSnapshot.clear();
+                                mWatcher.watch(context, null, batchingListener);
+                            }
+                        });
+            } catch (RejectedExecutionException e) {
+                // Already logged.  The next first listener tries again.
+                mDispatcher.post(() -> error(e));
+            }
+        }
+        mDispatcher.post(() -> listener.notifyDataSetChanged());
+    }
+
+    @Override
+    public void removeListener(ListListener listener) {
+        mListeners.remove(listener);
+        if (mListeners.isEmpty()) {
+            // Stop mWatcher via cancel.  The interrupt ends its WatchHub subscriptions.
+            // Anything it already queued is dropped; mResumeMarkers only covers what
+            // was applied, so a resumed Watcher will deliver it again.
+            mBatchingListener = null;
+            if (mCurrentContext != null) {
+                mCurrentContext.cancel();
+                mCurrentContext = null;
+            }
+            if (mWatchFuture != null) {
+                mWatchFuture.cancel(true);
+                mWatchFuture = null;
+            }
+            mDispatcher.removeAll();
+            if (mSavePending) {
+                save();
+            }
+            mDispatcher.postDelayed(mExpire, mRetentionMs);
+        }
+    }
+
+    private void scheduleSave() {
+        if (mSnapshot != null && !mSavePending) {
+            mSavePending = true;
+            mDispatcher.postDelayed(mSave, SNAPSHOT_DELAY_MS);
+        }
+    }
+
+    /**
+     * Saves the data to the snapshot.  Runs on the main thread.
+     */
+    private void save() {
+        mSavePending = false;
+        if (mResumeMarkers.isEmpty()) {
+            // The data can't be brought up to date without markers, so it's not worth saving.
+            return;
+        }
+        mSnapshot.save(mElems.toList(), ImmutableMap.copyOf(mResumeMarkers));
+    }
+
+    /**
+     * Releases the data kept after the last listener was removed.  Runs on the main thread.
+     */
+    private void expire() {
+        mElems.clear();
+        mResumeMarkers.clear();
+    }
+
+    /**
+     * Applies a batch of changes in the order they were received.  Runs on the main thread.
+     *
+     * @param replace the batch is a freshly loaded data set that replaces the current one
+     */
+    private void applyBatch(List<Change<E>> batch, boolean replace) {
+        if (replace && !mElems.isEmpty()) {
+            // The Watcher couldn't resume, so the kept data may be stale.
+            mElems.clear();
+            for (Change<E> change : batch) {
+                if (change.mDelete) {
+                    delete(change.mElem, null);
+                } else {
+                    put(change.mElem, null);
+                }
+            }
+            for (ListListener listener : mListeners) {
+                listener.notifyDataSetChanged();
+            }
+            return;
+        }
+        if (mElems.isEmpty()) {
+            // Typically the initial load.  The listeners don't need to hear about
+            // each insertion, just the final size.
+            for (Change<E> change : batch) {
+                if (change.mDelete) {
+                    delete(change.mElem, null);
+                } else {
+                    put(change.mElem, null);
+                }
+            }
+            if (!mElems.isEmpty()) {
+                for (ListListener listener : mListeners) {
+                    listener.notifyItemRangeInserted(0, mElems.size());
+                }
+            }
+            return;
+        }
+        for (Change<E> change : batch) {
+            if (change.mDelete) {
+                delete(change.mElem, mNotifier);
+            } else {
+                put(change.mElem, mNotifier);
+            }
+        }
+        mNotifier.flush();
+    }
+
+    private void put(E elem, RangeNotifier notifier) {
+        int oldSize = mElems.size();
+        int idx = mElems.put(elem);
+        if (notifier == null) {
+            return;
+        }
+        if (mElems.size() == oldSize) {
+            // Existing entry with a change.
+            notifier.changed(idx);
+        } else {
+            notifier.inserted(idx);
+        }
+    }
+
+    private void delete(E elem, RangeNotifier notifier) {
+        int idx = mElems.remove(elem);
+        if (idx >= 0 && notifier != null) {
+            notifier.removed(idx);
+        }
+    }
+
+    private void error(Exception e) {
+        for (ListListener listener : mListeners) {
+            listener.onError(e);
+        }
+    }
+
+    private static class Change<E> {
+        final E mElem;
+        final boolean mDelete;
+
+        Change(E elem, boolean delete) {
+            mElem = elem;
+            mDelete = delete;
+        }
+    }
+
+    /**
+     * Receives notifications from the Watcher in a background thread and queues them
+     * for the main thread.  Each call to addListener that starts the Watcher gets its own
+     * BatchingListener so that a cancelled Watcher can't leak changes into a later one.
+     */
+    private class BatchingListener implements Watcher.Listener<E> {
+        private List<Change<E>> mPending = Lists.newArrayList();
+        private Map<String, ResumeMarker> mPendingMarkers = Maps.newHashMap();
+        private boolean mInitialStateLoaded = false;
+        private boolean mReplace = false;
+        // Set by loadSnapshot until the snapshot is flushed.  It is kept apart from
+        // mPending so that a full load can drop it.
+        private List<E> mSnapshotElems = null;
+        private Map<String, ResumeMarker> mSnapshotMarkers = null;
+        // Set by loadSnapshot until the Watcher shows that it could resume from the
+        // snapshot's markers by delivering a change, or loads everything instead.
+        private boolean mSnapshotUnconfirmed = false;
+        // Set if the Watcher failed while the snapshot was unconfirmed.
+        private boolean mSnapshotRejected = false;
+        private boolean mFlushScheduled = false;
+
+        @Override
+        public void onPut(E elem) {
+            enqueue(new Change<>(elem, false));
+        }
+
+        @Override
+        public void onDelete(E elem) {
+            enqueue(new Change<>(elem, true));
+        }
+
+        @Override
+        public synchronized void onInitialStateLoaded() {
+            mInitialStateLoaded = true;
+            mReplace = true;
+            mSnapshotUnconfirmed = false;
+            // The Watcher couldn't resume from the snapshot.  If the snapshot hasn't been
+            // shown yet, don't: it may have rows that have since been deleted.
+            mSnapshotElems = null;
+            mSnapshotMarkers = null;
+            if (!mFlushScheduled) {
+                mFlushScheduled = true;
+                mDispatcher.post(this::flush);
+            }
+        }
+
+        /**
+         * Reads {@code snapshot} and queues its contents to replace the data.  Runs in
+         * the Watcher's thread before the Watcher starts.
+         *
+         * @return the resume markers of the snapshot or null if there was none
+         */
+        Map<String, ResumeMarker> loadSnapshot(ListSnapshot<E> snapshot) {
+            Stopwatch stopwatch = Stopwatch.createStarted();
+            ListSnapshot.Contents<E> contents = snapshot.load();
+            if (contents == null) {
+                return null;
+            }
+            Log.i(TAG, "Loaded " + contents.getElems().size() + " elements from snapshot in " +
+                    stopwatch.elapsed(TimeUnit.MILLISECONDS) + "ms");
+            synchronized (this) {
+                mSnapshotElems = contents.getElems();
+                mSnapshotMarkers = contents.getResumeMarkers();
+                mSnapshotUnconfirmed = true;
+                // Show it right away, even though the Watcher hasn't loaded anything yet.
+                mFlushScheduled = true;
+                mDispatcher.post(this::flush);
+            }
+            return contents.getResumeMarkers();
+        }
+
+        @Override
+        public synchronized void onResumed() {
+            mInitialStateLoaded = true;
+        }
+
+        @Override
+        public synchronized void onCheckpoint(String table, ResumeMarker marker) {
+            // Checkpoints are delivered after the changes they cover, so a drained
+            // marker never gets ahead of the drained changes.
+            mPendingMarkers.put(table, marker);
+            scheduleFlush();
+        }
+
+        @Override
+        public void onError(final Exception e) {
+            synchronized (this) {
+                if (mSnapshotUnconfirmed) {
+                    // Leave it to the Watcher's thread to load everything.  Until then,
+                    // hold changes again and drop the snapshot's checkpoints.
+                    Log.w(TAG, "Watcher failed before confirming the snapshot: " + e);
+                    mSnapshotUnconfirmed = false;
+                    mSnapshotRejected = true;
+                    mInitialStateLoaded = false;
+                    mPendingMarkers.clear();
+                    return;
+                }
+            }
+            mDispatcher.post(() -> {
+                if (mBatchingListener == this) {
+                    flush();
+                    error(e);
+                }
+            });
+        }
+
+        /**
+         * Returns whether the Watcher failed before it could resume from the snapshot's
+         * markers, in which case it should load everything.
+         */
+        synchronized boolean isSnapshotRejected() {
+            return mSnapshotRejected;
+        }
+
+        private synchronized void enqueue(Change<E> change) {
+            mSnapshotUnconfirmed = false;
+            mPending.add(change);
+            scheduleFlush();
+        }
+
+        private void scheduleFlush() {
+            // Until the initial state has loaded, hold everything so that it can be
+            // applied at once.
+            if (mInitialStateLoaded && !mFlushScheduled) {
+                mFlushScheduled = true;
+                mDispatcher.postDelayed(this::flush, BATCH_DELAY_MS);
+            }
+        }
+
+        // Runs on the main thread.
+        private void flush() {
+            List<E> snapshotElems;
+            Map<String, ResumeMarker> snapshotMarkers;
+            List<Change<E>> batch;
+            Map<String, ResumeMarker> markers;
+            boolean replace;
+            synchronized (this) {
+                snapshotElems = mSnapshotElems;
+                snapshotMarkers = mSnapshotMarkers;
+                batch = mPending;
+                markers = mPendingMarkers;
+                replace = mReplace;
+                mSnapshotElems = null;
+                mSnapshotMarkers = null;
+                mPending = Lists.newArrayList();
+                mPendingMarkers = Maps.newHashMap();
+                mReplace = false;
+                mFlushScheduled = false;
+            }
+            if (mBatchingListener != this) {
+                return;
+            }
+            if (snapshotElems != null) {
+                // The snapshot's own contents don't need to be saved again.
+                List<Change<E>> snapshotBatch = Lists.newArrayListWithCapacity(
+                        snapshotElems.size());
+                for (E elem : snapshotElems) {
+                    snapshotBatch.add(new Change<>(elem, false));
+                }
+                applyBatch(snapshotBatch, true);
+                mResumeMarkers.clear();
+                mResumeMarkers.putAll(snapshotMarkers);
+            }
+            if (!batch.isEmpty() || replace) {
+                applyBatch(batch, replace);
+            }
+            if (replace) {
+                mResumeMarkers.clear();
+            }
+            boolean advanced = false;
+            for (Map.Entry<String, ResumeMarker> entry : markers.entrySet()) {
+                advanced |= !entry.getValue().equals(mResumeMarkers.put(
+                        entry.getKey(), entry.getValue()));
+            }
+            if (!batch.isEmpty() || advanced) {
+                scheduleSave();
+            }
+        }
+    }
+
+    /**
+     * Coalesces consecutive single-item notifications into range notifications.  A run
+     * of the same kind of notification is extended as long as the new position is
+     * adjacent to the run; anything else flushes the run to the listeners.
+     */
+    private class RangeNotifier {
+        private static final int NONE = 0;
+        private static final int CHANGED = 1;
+        private static final int INSERTED = 2;
+        private static final int REMOVED = 3;
+
+        private int mType = NONE;
+        private int mStart;
+        private int mCount;
+
+        void changed(int position) {
+            if (mType == CHANGED) {
+                if (position >= mStart && position < mStart + mCount) {
+                    return;
+                } else if (position == mStart + mCount) {
+                    mCount++;
+                    return;
+                } else if (position == mStart - 1) {
+                    mStart--;
+                    mCount++;
+                    return;
+                }
+            }
+            start(CHANGED, position);
+        }
+
+        void inserted(int position) {
+            if (mType == INSERTED && position >= mStart && position <= mStart + mCount) {
+                mCount++;
+                return;
+            }
+            start(INSERTED, position);
+        }
+
+        void removed(int position) {
+            if (mType == REMOVED) {
+                if (position == mStart) {
+                    mCount++;
+                    return;
+                } else if (position == mStart - 1) {
+                    mStart--;
+                    mCount++;
+                    return;
+                }
+            }
+            start(REMOVED, position);
+        }
+
+        void flush() {
+            for (ListListener listener : mListeners) {
+                switch (mType) {
+                    case CHANGED:
+                        listener.notifyItemRangeChanged(mStart, mCount);
+                        break;
+                    case INSERTED:
+                        listener.notifyItemRangeInserted(mStart, mCount);
+                        break;
+                    case REMOVED:
+                        listener.notifyItemRangeRemoved(mStart, mCount);
+                        break;
+                }
+            }
+            mType = NONE;
+        }
+
+        private void start(int type, int position) {
+            flush();
+            mType = type;
+            mStart = position;
+            mCount = 1;
+        }
+    }
+}
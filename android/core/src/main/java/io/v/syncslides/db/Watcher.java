@@ -5,8 +5,10 @@
 package io.v.syncslides.db;
 
 import java.util.Comparator;
+import java.util.Map;
 
 import io.v.v23.context.VContext;
+import io.v.v23.services.watch.ResumeMarker;
 
 /**
  * Implementations of Watcher work closely with @see io.v.syncslides.db.WatchedList to
@@ -18,10 +20,17 @@ interface Watcher<E> extends Comparator<E> {
      * Fetches the initial data set from Syncbase and then watches it for subsequent changes.
      * Both the initial data set and changes are passed to {@code listener}.
      *
+     * If {@code resumeMarkers} is non-null, the caller already has the data set as of
+     * those markers.  The Watcher then tries to pass only the changes made since then,
+     * calling {@link Listener#onResumed} instead of loading the initial data set.  If it
+     * can't, it falls back to loading the whole data set.
+     *
      * @param context to be used for communications with Syncbase
+     * @param resumeMarkers table name to the last marker that the caller checkpointed
+     *                      for that table, or null to start from scratch
      * @param listener receives notifications for the initial data and for changes
      */
-    void watch(VContext context, Listener<E> listener);
+    void watch(VContext context, Map<String, ResumeMarker> resumeMarkers, Listener<E> listener);
 
     /**
      * Receives notifications of type E for the Watcher's data set.  These
@@ -33,6 +42,26 @@ interface Watcher<E> extends Comparator<E> {
          */
         void onPut(E elem);
 
+        /**
+         * Notifies that the initial data set has been passed to {@link #onPut}.  It replaces
+         * any data that the listener already had.  All subsequent notifications are changes
+         * to that data set.
+         */
+        void onInitialStateLoaded();
+
+        /**
+         * Notifies that the Watcher resumed from the markers passed to
+         * {@link Watcher#watch}.  The listener's data is still valid and all subsequent
+         * notifications are changes to it.
+         */
+        void onResumed();
+
+        /**
+         * Notifies that all changes to {@code table} up to {@code marker} have been passed
+         * to this listener.
+         */
+        void onCheckpoint(String table, ResumeMarker marker);
+
         /**
          * Notifies that {@code elem} was deleted.
          */
@@ -7,12 +7,12 @@ package io.v.syncslides.discovery;
 import java.util.ArrayList;
 import java.util.List;
 
-import io.v.android.v23.V;
 import io.v.syncslides.db.VDeck;
 import io.v.syncslides.db.VPerson;
 import io.v.syncslides.model.Deck;
 import io.v.syncslides.model.Person;
 import io.v.syncslides.model.PresentationAdvertisement;
+import io.v.v23.V;
 import io.v.v23.context.VContext;
 import io.v.v23.discovery.Attributes;
 import io.v.v23.discovery.Service;
@@ -6,9 +6,9 @@ package io.v.syncslides.discovery;
 
 import java.util.UUID;
 
-import io.v.android.v23.V;
 import io.v.syncslides.model.DynamicList;
 import io.v.syncslides.model.PresentationAdvertisement;
+import io.v.v23.V;
 import io.v.v23.context.VContext;
 import io.v.v23.verror.VException;
 
@@ -4,19 +4,18 @@
 
 package io.v.syncslides.discovery;
 
-import android.os.Handler;
-import android.os.Looper;
-import android.util.Log;
-
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 import io.v.syncslides.db.VDeck;
+import io.v.syncslides.lib.Dispatcher;
+import io.v.syncslides.lib.Dispatchers;
+import io.v.syncslides.lib.Log;
+import io.v.syncslides.lib.WatchScheduler;
 import io.v.syncslides.model.Deck;
 import io.v.syncslides.model.DeckImpl;
 import io.v.syncslides.model.DynamicList;
@@ -50,9 +49,8 @@ class RpcScanner implements DynamicList<PresentationAdvertisement> {
     private final VDiscovery mDiscovery;
     private final ClientFactory mClientFactory;
     private final Set<ListListener> mListeners;
-    private final ExecutorService mExecutor;
     private final List<PresentationAdvertisement> mElems;
-    private final Handler mHandler;
+    private final Dispatcher mDispatcher;
     private CancelableVContext mCurrentContext;
 
     public RpcScanner(VContext context, VDiscovery discovery, ClientFactory clientFactory) {
@@ -60,9 +58,8 @@ class RpcScanner implements DynamicList<PresentationAdvertisement> {
         mDiscovery = discovery;
         mClientFactory = clientFactory;
         mListeners = Sets.newHashSet();
-        mExecutor = Executors.newSingleThreadExecutor();
         mElems = Lists.newArrayList();
-        mHandler = new Handler(Looper.getMainLooper());
+        mDispatcher = Dispatchers.mainThread();
     }
 
     @Override
@@ -81,9 +78,14 @@ class RpcScanner implements DynamicList<PresentationAdvertisement> {
         if (mListeners.size() == 1) {
             // First listener.  Start the thread.
             mCurrentContext = mBaseContext.withCancel();
-            mExecutor.submit(() -> scan());
+            try {
+                WatchScheduler.Singleton.get().submit(TAG, () -> scan());
+            } catch (RejectedExecutionException e) {
+                // Already logged.
+                mDispatcher.post(() -> handleError(e));
+            }
         }
-        mHandler.post(() -> listener.notifyDataSetChanged());
+        mDispatcher.post(() -> listener.notifyDataSetChanged());
     }
 
     @Override
@@ -93,7 +95,7 @@ class RpcScanner implements DynamicList<PresentationAdvertisement> {
             // Stop the scan via cancel.
             mCurrentContext.cancel();
             mCurrentContext = null;
-            mHandler.removeCallbacksAndMessages(null);
+            mDispatcher.removeAll();
         }
     }
 
@@ -138,11 +140,11 @@ class RpcScanner implements DynamicList<PresentationAdvertisement> {
                 fetchDetails(descriptor);
             } else {
                 String id = ((Update.Lost) update).getElem().getInstanceId();
-                mHandler.post(() -> removeAdvertisement(id));
+                mDispatcher.post(() -> removeAdvertisement(id));
             }
         }
         if (updates.error() != null) {
-            mHandler.post(() -> handleError(updates.error()));
+            mDispatcher.post(() -> handleError(updates.error()));
         }
     }
 
@@ -168,6 +170,6 @@ class RpcScanner implements DynamicList<PresentationAdvertisement> {
         Person person = new Person(info.getPerson().getBlessing(), info.getPerson().getName());
         final PresentationAdvertisement ad = new PresentationAdvertisement(
                 descriptor.getInstanceId(), person, deck, info.getSyncgroupName());
-        mHandler.post(() -> addAdvertisement(ad));
+        mDispatcher.post(() -> addAdvertisement(ad));
     }
 }
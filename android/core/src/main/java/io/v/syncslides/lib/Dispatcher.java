@@ -0,0 +1,32 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.syncslides.lib;
+
+/**
+ * Runs callbacks on the thread that owns some UI state, normally the main thread.  The
+ * method signatures match those of android.os.Handler.  Classes that take a Dispatcher
+ * instead of creating a Handler can also be driven without a Looper, e.g. in JVM tests.
+ */
+public interface Dispatcher {
+    /**
+     * Runs {@code callback} on the dispatcher's thread.
+     */
+    void post(Runnable callback);
+
+    /**
+     * Runs {@code callback} on the dispatcher's thread after {@code delayMs}.
+     */
+    void postDelayed(Runnable callback, long delayMs);
+
+    /**
+     * Removes pending posts of {@code callback}.
+     */
+    void removeCallbacks(Runnable callback);
+
+    /**
+     * Removes all pending callbacks that were posted to this Dispatcher.
+     */
+    void removeAll();
+}
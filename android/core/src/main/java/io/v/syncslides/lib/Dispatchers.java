@@ -0,0 +1,51 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.syncslides.lib;
+
+import com.google.common.base.Supplier;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Makes the Dispatchers that the core classes notify their listeners on.  By default they
+ * run callbacks on a single "main" thread of their own, so the core classes work on a
+ * plain JVM.  The Android app installs a factory of Dispatchers for its main thread.
+ */
+public final class Dispatchers {
+    private static volatile Supplier<Dispatcher> sMainThread = new Supplier<Dispatcher>() {
+        private ScheduledExecutorService mExecutor;
+
+        @Override
+        public synchronized Dispatcher get() {
+            if (mExecutor == null) {
+                mExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "main");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            return new ExecutorDispatcher(mExecutor);
+        }
+    };
+
+    private Dispatchers() {
+    }
+
+    /**
+     * Makes all later calls to {@link #mainThread} use {@code factory}.  Call it before
+     * anything else in the core module, e.g. in Application.onCreate.
+     */
+    public static void setMainThreadFactory(Supplier<Dispatcher> factory) {
+        sMainThread = factory;
+    }
+
+    /**
+     * Returns a new Dispatcher for the main thread.
+     */
+    public static Dispatcher mainThread() {
+        return sMainThread.get();
+    }
+}
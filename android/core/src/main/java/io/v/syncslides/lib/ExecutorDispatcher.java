@@ -0,0 +1,81 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.syncslides.lib;
+
+import com.google.common.collect.Sets;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dispatches callbacks to a ScheduledExecutorService.  With a single-threaded executor,
+ * it stands in for the main thread where there is no Looper, e.g. on a plain JVM.  Many
+ * ExecutorDispatchers can share an executor; {@link #removeAll} only removes the
+ * callbacks that were posted to this instance, like a Handler of its own would.
+ */
+public class ExecutorDispatcher implements Dispatcher {
+    private final ScheduledExecutorService mExecutor;
+    // Guarded by this.
+    private final Set<Post> mPending = Sets.newHashSet();
+
+    public ExecutorDispatcher(ScheduledExecutorService executor) {
+        mExecutor = executor;
+    }
+
+    @Override
+    public void post(Runnable callback) {
+        postDelayed(callback, 0);
+    }
+
+    @Override
+    public synchronized void postDelayed(Runnable callback, long delayMs) {
+        Post post = new Post(callback);
+        mPending.add(post);
+        post.mFuture = mExecutor.schedule(post, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void removeCallbacks(Runnable callback) {
+        for (Iterator<Post> it = mPending.iterator(); it.hasNext(); ) {
+            Post post = it.next();
+            if (post.mCallback == callback) {
+                post.mFuture.cancel(false);
+                it.remove();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void removeAll() {
+        for (Post post : mPending) {
+            post.mFuture.cancel(false);
+        }
+        mPending.clear();
+    }
+
+    private class Post implements Runnable {
+        final Runnable mCallback;
+        // Guarded by ExecutorDispatcher.this.
+        Future<?> mFuture;
+
+        Post(Runnable callback) {
+            mCallback = callback;
+        }
+
+        @Override
+        public void run() {
+            synchronized (ExecutorDispatcher.this) {
+                if (!mPending.remove(this)) {
+                    // Removed just before it started.
+                    return;
+                }
+            }
+            mCallback.run();
+        }
+    }
+}
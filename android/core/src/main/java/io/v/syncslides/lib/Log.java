@@ -0,0 +1,77 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.syncslides.lib;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Logging for the core module, with the same methods as android.util.Log.  Messages go to
+ * System.err unless a Printer is installed, e.g. one that forwards to android.util.Log.
+ */
+public final class Log {
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+
+    /**
+     * Receives every message that is logged.
+     */
+    public interface Printer {
+        /**
+         * @param priority one of {@link #DEBUG}, {@link #INFO}, {@link #WARN} and
+         *                 {@link #ERROR}
+         * @param tr       an exception to log with the message, or null
+         */
+        void println(int priority, String tag, String msg, Throwable tr);
+    }
+
+    private static final Printer STDERR = (priority, tag, msg, tr) -> {
+        StringWriter out = new StringWriter();
+        out.write("DIWE".charAt(priority - DEBUG) + "/" + tag + ": " + msg);
+        if (tr != null) {
+            out.write('\n');
+            tr.printStackTrace(new PrintWriter(out));
+        }
+        System.err.println(out);
+    };
+
+    private static volatile Printer sPrinter = STDERR;
+
+    private Log() {
+    }
+
+    /**
+     * Sends all later messages to {@code printer}.
+     */
+    public static void setPrinter(Printer printer) {
+        sPrinter = printer;
+    }
+
+    public static void d(String tag, String msg) {
+        sPrinter.println(DEBUG, tag, msg, null);
+    }
+
+    public static void i(String tag, String msg) {
+        sPrinter.println(INFO, tag, msg, null);
+    }
+
+    public static void w(String tag, String msg) {
+        sPrinter.println(WARN, tag, msg, null);
+    }
+
+    public static void w(String tag, String msg, Throwable tr) {
+        sPrinter.println(WARN, tag, msg, tr);
+    }
+
+    public static void e(String tag, String msg) {
+        sPrinter.println(ERROR, tag, msg, null);
+    }
+
+    public static void e(String tag, String msg, Throwable tr) {
+        sPrinter.println(ERROR, tag, msg, tr);
+    }
+}
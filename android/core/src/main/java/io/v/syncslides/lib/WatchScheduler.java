@@ -0,0 +1,116 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.syncslides.lib;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the long-lived, blocking loops that watch Syncbase and scan for presentations.
+ * All such loops in the process share one bounded pool of threads.  Threads that
+ * have been idle for a while exit, so a device that is left running doesn't
+ * accumulate parked threads.
+ *
+ * A loop is stopped by cancelling its VContext and/or cancelling the Future returned
+ * by {@link #submit} with {@code mayInterruptIfRunning} set.  Because the loops block,
+ * a loop that had to wait for a thread might wait forever, so a loop that is submitted
+ * while all threads are busy is rejected instead.  The cap should therefore be
+ * comfortably above the number of loops the UI runs at once.
+ * Loops that other loops wait on, like WatchHub's watch streams, must not run here, or
+ * the waiting loops could take every thread and starve them.
+ */
+public class WatchScheduler {
+    public static class Singleton {
+        private static volatile WatchScheduler instance;
+
+        public static WatchScheduler get() {
+            WatchScheduler result = instance;
+            if (result == null) {
+                synchronized (Singleton.class) {
+                    result = instance;
+                    if (result == null) {
+                        instance = result = new WatchScheduler(DEFAULT_MAX_THREADS);
+                    }
+                }
+            }
+            return result;
+        }
+    }
+
+    public static final int DEFAULT_MAX_THREADS = 32;
+    private static final String TAG = "WatchScheduler";
+    private static final String THREAD_PREFIX = "watch-";
+    private static final long IDLE_TIMEOUT_SECONDS = 30;
+
+    private final ThreadPoolExecutor mExecutor;
+
+    WatchScheduler(int maxThreads) {
+        final AtomicInteger threadNum = new AtomicInteger();
+        ThreadFactory factory = runnable -> {
+            Thread thread = new Thread(runnable, THREAD_PREFIX + threadNum.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        // No queue: a loop either gets a thread right away or is rejected.
+        mExecutor = new ThreadPoolExecutor(0, maxThreads,
+                IDLE_TIMEOUT_SECONDS, TimeUnit.SECONDS, new SynchronousQueue<>(), factory);
+    }
+
+    /**
+     * Runs {@code loop} in a background thread.  While it runs, the thread's name
+     * includes {@code name} to make thread dumps readable.
+     *
+     * @return allows the caller to stop the loop by interrupting it
+     * @throws RejectedExecutionException if all threads are busy or the scheduler has
+     *                                    been shut down
+     */
+    public Future<?> submit(final String name, final Runnable loop) {
+        try {
+            return mExecutor.submit(() -> {
+                Thread thread = Thread.currentThread();
+                String threadName = thread.getName();
+                thread.setName(threadName + " " + name);
+                try {
+                    loop.run();
+                } finally {
+                    thread.setName(threadName);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Log.e(TAG, "Rejected " + name + ": " + mExecutor.getActiveCount() + " of " +
+                    mExecutor.getMaximumPoolSize() + " threads are busy" +
+                    (mExecutor.isShutdown() ? " and the scheduler is shut down" : ""), e);
+            throw e;
+        }
+    }
+
+    /**
+     * Changes the maximum number of concurrently running loops.  Loops that are already
+     * running over a lowered cap keep running.
+     */
+    public void setMaxThreads(int maxThreads) {
+        mExecutor.setMaximumPoolSize(maxThreads);
+    }
+
+    /**
+     * Returns the number of loops that are currently running.
+     */
+    public int getActiveCount() {
+        return mExecutor.getActiveCount();
+    }
+
+    /**
+     * Interrupts all running loops and rejects any further ones.
+     */
+    public void shutdown() {
+        Log.i(TAG, "Shutting down with " + mExecutor.getActiveCount() + " active loops");
+        mExecutor.shutdownNow();
+    }
+}
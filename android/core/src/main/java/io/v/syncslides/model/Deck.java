@@ -4,20 +4,13 @@
 
 package io.v.syncslides.model;
 
-import android.graphics.Bitmap;
-
 /**
  * A deck, aka a set of slides.
  */
 public interface Deck {
     /**
-     * Returns a Bitmap suitable as a thumbnail of the deck (e.g. the title
-     * slide).
-     */
-    Bitmap getThumb();
-
-    /**
-     * Returns raw thumbnail data.
+     * Returns raw thumbnail data, suitable as a thumbnail of the deck (e.g. the
+     * title slide).
      */
     byte[] getThumbData();
 
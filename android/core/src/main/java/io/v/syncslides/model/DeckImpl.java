@@ -4,9 +4,6 @@
 
 package io.v.syncslides.model;
 
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-
 /**
  * An implementation of {@link Deck} interface.
  */
@@ -27,10 +24,6 @@ public class DeckImpl implements Deck {
                 ", thumb=" + (mThumb == null ? "no" : "yes") + "]";
     }
 
-    @Override
-    public Bitmap getThumb() {
-        return BitmapFactory.decodeByteArray(mThumb, 0, mThumb.length);
-    }
     @Override
     public byte[] getThumbData() {
         return mThumb;
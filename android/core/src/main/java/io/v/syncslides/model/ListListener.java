@@ -0,0 +1,34 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.syncslides.model;
+
+/**
+ * Callbacks for list changes.  The method signatures match those of
+ * RecyclerView.Adapter so that an adapter can implement this interface directly.
+ */
+public interface ListListener {
+    void notifyDataSetChanged();
+    void notifyItemChanged(int position);
+    void notifyItemInserted(int position);
+    void notifyItemRemoved(int position);
+
+    /**
+     * Notifies that the {@code itemCount} items starting at {@code positionStart} changed.
+     */
+    void notifyItemRangeChanged(int positionStart, int itemCount);
+
+    /**
+     * Notifies that {@code itemCount} items were inserted starting at {@code positionStart}.
+     */
+    void notifyItemRangeInserted(int positionStart, int itemCount);
+
+    /**
+     * Notifies that the {@code itemCount} items previously starting at {@code positionStart}
+     * were removed.
+     */
+    void notifyItemRangeRemoved(int positionStart, int itemCount);
+
+    void onError(Exception e);
+}
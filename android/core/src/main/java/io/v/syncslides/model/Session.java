@@ -59,7 +59,14 @@ public interface Session {
     DynamicList<Slide> getSlides();
 
     /**
-     * Sets the notes for the given slide.
+     * Sets the notes for the given slide.  The notes are written in the background after
+     * a short delay, and repeated edits are combined into one write.
      */
     void setNotes(int slideNum, String notes) throws VException;
+
+    /**
+     * Starts writing any changes that are still waiting to be written.  Call this when
+     * the UI goes away, e.g. in onStop.
+     */
+    void flush();
 }
@@ -4,8 +4,6 @@
 
 package io.v.syncslides.model;
 
-import android.graphics.Bitmap;
-
 /**
  * A slide.
  */
@@ -15,21 +13,11 @@ public interface Slide {
      */
     String getId();
 
-    /**
-     * Returns a Bitmap of the slide thumbnail.
-     */
-    Bitmap getThumb();
-
     /**
      * Returns the raw thumbnail data.
      */
     byte[] getThumbData();
 
-    /**
-     * Returns a Bitmap of the slide image.
-     */
-    Bitmap getImage();
-
     /**
      * Returns the raw image data.
      */
@@ -4,12 +4,9 @@
 
 package io.v.syncslides.model;
 
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-
 /**
- * Slide implementation that decodes byte arrays into Bitmaps only when
- * a getter is called, to conserve memory.
+ * Slide implementation that keeps the encoded image bytes.  The UI decodes them into
+ * Bitmaps only when it shows them, to conserve memory.
  */
 public class SlideImpl implements Slide {
     private String mId;
@@ -29,18 +26,10 @@ public class SlideImpl implements Slide {
         return mId;
     }
     @Override
-    public Bitmap getThumb() {
-        return BitmapFactory.decodeByteArray(mThumbnail, 0 /* offset */, mThumbnail.length);
-    }
-    @Override
     public byte[] getThumbData() {
         return mThumbnail;
     }
     @Override
-    public Bitmap getImage() {
-        return BitmapFactory.decodeByteArray(mImage, 0 /* offset */, mImage.length);
-    }
-    @Override
     public byte[] getImageData() {
         return mImage;
     }
@@ -0,0 +1,28 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.syncslides.model;
+
+import com.google.common.io.ByteSource;
+
+/**
+ * A slide that is being imported.  Its images are read while it is stored, so a deck can
+ * be imported without holding all of its images in memory.
+ */
+public interface SlideSource {
+    /**
+     * Returns the thumbnail data.
+     */
+    ByteSource getThumb();
+
+    /**
+     * Returns the full-size image data.  It may be read more than once.
+     */
+    ByteSource getImage();
+
+    /**
+     * Returns the slide notes.
+     */
+    String getNotes();
+}
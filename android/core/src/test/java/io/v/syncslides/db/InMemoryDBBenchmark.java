@@ -0,0 +1,128 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.syncslides.db;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import io.v.syncslides.lib.ExecutorDispatcher;
+import io.v.syncslides.model.Deck;
+import io.v.syncslides.model.DeckImpl;
+import io.v.syncslides.model.DynamicList;
+import io.v.syncslides.model.Session;
+import io.v.syncslides.model.Slide;
+import io.v.syncslides.model.SlideImpl;
+
+/**
+ * Load test of the UI layer: times how long WatchedLists that are fed by an InMemoryDB
+ * take to show many imported decks and many note edits.  A single executor thread stands
+ * in for the main thread.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class InMemoryDBBenchmark {
+    private static final int DECKS = 200;
+    private static final int SLIDES = 20;
+    private static final int NOTE_EDITS = 2000;
+
+    private ScheduledExecutorService mMainThread;
+    private InMemoryDB mDB;
+    private DynamicList<Deck> mDecks;
+    private Session mSession;
+    private DynamicList<Slide> mSlides;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws Exception {
+        mMainThread = Executors.newSingleThreadScheduledExecutor();
+        mDB = new InMemoryDB(() -> new ExecutorDispatcher(mMainThread));
+        String deckId = UUID.randomUUID().toString();
+        mDB.importDeck(deck(deckId), slides()).get();
+        mDecks = mDB.getDecks();
+        onMain(() -> mDecks.addListener(new NullListener()));
+        mSession = mDB.getSession(mDB.createSession(deckId));
+        mSlides = mSession.getSlides();
+        onMain(() -> mSlides.addListener(new NullListener()));
+        while (onMain(mDecks::getItemCount) != 1 || onMain(mSlides::getItemCount) != SLIDES) {
+            Thread.sleep(1);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        mMainThread.shutdownNow();
+    }
+
+    /**
+     * Imports {@value #DECKS} decks and waits for the deck list to show them.
+     */
+    @Benchmark
+    public int importDecks() throws Exception {
+        for (int i = 0; i < DECKS; i++) {
+            mDB.importDeck(deck(UUID.randomUUID().toString()), slides()).get();
+        }
+        int count;
+        while ((count = onMain(mDecks::getItemCount)) != DECKS + 1) {
+            Thread.sleep(1);
+        }
+        return count;
+    }
+
+    /**
+     * Makes {@value #NOTE_EDITS} note edits and waits for the slide list to show the last.
+     */
+    @Benchmark
+    public String editNotes() throws Exception {
+        for (int i = 0; i < NOTE_EDITS; i++) {
+            mSession.setNotes(i % SLIDES, "edit " + i);
+        }
+        int last = NOTE_EDITS - 1;
+        String expected = "edit " + last;
+        String notes;
+        while (!expected.equals(notes = onMain(() -> mSlides.get(last % SLIDES).getNotes()))) {
+            Thread.sleep(1);
+        }
+        return notes;
+    }
+
+    private <T> T onMain(Callable<T> callable) throws Exception {
+        return mMainThread.submit(callable).get();
+    }
+
+    private void onMain(Runnable runnable) throws Exception {
+        mMainThread.submit(runnable).get();
+    }
+
+    private static Deck deck(String id) {
+        return new DeckImpl("Deck " + id, new byte[0], id);
+    }
+
+    private static Slide[] slides() {
+        Slide[] slides = new Slide[SLIDES];
+        for (int i = 0; i < SLIDES; i++) {
+            slides[i] = new SlideImpl(null, new byte[0], new byte[0], "notes " + i);
+        }
+        return slides;
+    }
+}
@@ -0,0 +1,223 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.syncslides.db;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import io.v.syncslides.lib.ExecutorDispatcher;
+import io.v.syncslides.model.Deck;
+import io.v.syncslides.model.DeckImpl;
+import io.v.syncslides.model.DynamicList;
+import io.v.syncslides.model.Session;
+import io.v.syncslides.model.Slide;
+import io.v.syncslides.model.SlideImpl;
+import io.v.syncslides.model.SlideSource;
+
+import static org.junit.Assert.*;
+
+/**
+ * Drives WatchedLists from an InMemoryDB, with a single executor thread standing in for
+ * the main thread.
+ */
+public class InMemoryDBTest {
+    private static final long TIMEOUT_MS = 30000;
+
+    private ScheduledExecutorService mMainThread;
+    private InMemoryDB mDB;
+
+    @Before
+    public void setUp() throws Exception {
+        mMainThread = Executors.newSingleThreadScheduledExecutor();
+        mDB = new InMemoryDB(() -> new ExecutorDispatcher(mMainThread));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mMainThread.shutdownNow();
+    }
+
+    @Test
+    public void deckListFollowsImportsAndDeletes() throws Exception {
+        DynamicList<Deck> decks = mDB.getDecks();
+        onMain(() -> decks.addListener(new NullListener()));
+        mDB.importDeck(deck("a"), slides(3)).get();
+        mDB.importDeck(deck("b"), slides(3)).get();
+        awaitSize(decks, 2);
+        assertEquals("a", onMain(() -> decks.get(0).getId()));
+
+        mDB.deleteDeck("a").get();
+        awaitSize(decks, 1);
+        assertEquals("b", onMain(() -> decks.get(0).getId()));
+    }
+
+    @Test
+    public void slideListShowsNotes() throws Exception {
+        mDB.importDeck(deck("a"), slides(3)).get();
+        Session session = mDB.getSession(mDB.createSession("a"));
+        DynamicList<Slide> slides = session.getSlides();
+        onMain(() -> slides.addListener(new NullListener()));
+        awaitSize(slides, 3);
+
+        session.setNotes(1, "new notes");
+        awaitNotes(slides, 1, "new notes");
+        assertEquals("notes 0", onMain(() -> slides.get(0).getNotes()));
+    }
+
+    @Test
+    public void importReadsSlideSources() throws Exception {
+        List<SlideSource> sources = Lists.newArrayList();
+        for (Slide slide : slides(2)) {
+            sources.add(new SlideSource() {
+                @Override
+                public ByteSource getThumb() {
+                    return ByteSource.wrap(slide.getThumbData());
+                }
+
+                @Override
+                public ByteSource getImage() {
+                    return ByteSource.wrap(new byte[]{1, 2, 3});
+                }
+
+                @Override
+                public String getNotes() {
+                    return slide.getNotes();
+                }
+            });
+        }
+        mDB.importDeck(deck("a"), sources).get();
+        Session session = mDB.getSession(mDB.createSession("a"));
+        DynamicList<Slide> slides = session.getSlides();
+        onMain(() -> slides.addListener(new NullListener()));
+        awaitSize(slides, 2);
+        assertEquals("notes 1", onMain(() -> slides.get(1).getNotes()));
+        assertEquals(3, onMain(() -> slides.get(1).getImageData()).length);
+    }
+
+    @Test
+    public void slideEditsKeepOtherSlides() throws Exception {
+        mDB.importDeck(deck("a"), slides(3)).get();
+        Session session = mDB.getSession(mDB.createSession("a"));
+        DynamicList<Slide> slides = session.getSlides();
+        onMain(() -> slides.addListener(new NullListener()));
+        awaitSize(slides, 3);
+        String first = onMain(() -> slides.get(0).getId());
+        String second = onMain(() -> slides.get(1).getId());
+        String third = onMain(() -> slides.get(2).getId());
+
+        String inserted = mDB.insertSlide("a", first, second,
+                new SlideImpl(null, new byte[0], new byte[0], "inserted")).get();
+        awaitSize(slides, 4);
+        assertEquals(inserted, onMain(() -> slides.get(1).getId()));
+        assertEquals(second, onMain(() -> slides.get(2).getId()));
+
+        // Move the last slide to the front.
+        String moved = mDB.moveSlide("a", third, null, first).get();
+        awaitNotes(slides, 0, "notes 2");
+        assertEquals(moved, onMain(() -> slides.get(0).getId()));
+        assertEquals(first, onMain(() -> slides.get(1).getId()));
+        assertEquals(4, (int) onMain(slides::getItemCount));
+
+        mDB.deleteSlide("a", inserted).get();
+        awaitSize(slides, 3);
+        session.setNotes(2, "edited");
+        awaitNotes(slides, 2, "edited");
+        assertEquals(second, onMain(() -> slides.get(2).getId()));
+    }
+
+    @Test
+    public void slideEditsKeepSessionSlide() throws Exception {
+        mDB.importDeck(deck("a"), slides(4)).get();
+        Session session = mDB.getSession(mDB.createSession("a"));
+        DynamicList<Slide> slides = session.getSlides();
+        onMain(() -> slides.addListener(new NullListener()));
+        awaitSize(slides, 4);
+        List<String> ids = Lists.newArrayList();
+        for (int i = 0; i < 4; i++) {
+            final int slideNum = i;
+            ids.add(onMain(() -> slides.get(slideNum).getId()));
+        }
+        int[] slideNum = new int[1];
+        onMain(() -> session.addSlideNumberListener(new Session.SlideNumberListener() {
+            @Override
+            public void onChange(int num) {
+                slideNum[0] = num;
+            }
+
+            @Override
+            public void onError(Exception e) {
+                fail(e.toString());
+            }
+        }));
+        session.setLocalSlideNum(2);
+
+        // Move the slide being viewed to the front.
+        String moved = mDB.moveSlide("a", ids.get(2), null, ids.get(0)).get();
+        assertEquals(0, (int) onMain(() -> slideNum[0]));
+        // Insert a slide before it.
+        String inserted = mDB.insertSlide("a", null, moved,
+                new SlideImpl(null, new byte[0], new byte[0], "inserted")).get();
+        assertEquals(1, (int) onMain(() -> slideNum[0]));
+        // Move a slide from before it to after it.
+        mDB.moveSlide("a", inserted, ids.get(0), ids.get(1)).get();
+        assertEquals(0, (int) onMain(() -> slideNum[0]));
+        // Deleting a slide after it doesn't change it.
+        mDB.deleteSlide("a", ids.get(3)).get();
+        assertEquals(0, (int) onMain(() -> slideNum[0]));
+        // Deleting it shows the next slide, which takes its number.
+        mDB.deleteSlide("a", moved).get();
+        assertEquals(0, (int) onMain(() -> slideNum[0]));
+        awaitSize(slides, 3);
+        assertEquals(ids.get(0), onMain(() -> slides.get(0).getId()));
+    }
+
+    private static Deck deck(String id) {
+        return new DeckImpl("Deck " + id, new byte[0], id);
+    }
+
+    private static Slide[] slides(int count) {
+        Slide[] slides = new Slide[count];
+        for (int i = 0; i < count; i++) {
+            slides[i] = new SlideImpl(null, new byte[0], new byte[0], "notes " + i);
+        }
+        return slides;
+    }
+
+    private <T> T onMain(Callable<T> callable) throws Exception {
+        return mMainThread.submit(callable).get();
+    }
+
+    private void onMain(Runnable runnable) throws Exception {
+        mMainThread.submit(runnable).get();
+    }
+
+    private void awaitSize(DynamicList<?> list, int size) throws Exception {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (onMain(list::getItemCount) != size) {
+            assertTrue("Timed out waiting for " + size + " elements",
+                    System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private void awaitNotes(DynamicList<Slide> slides, int slideNum, String notes)
+            throws Exception {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!notes.equals(onMain(() -> slides.get(slideNum).getNotes()))) {
+            assertTrue("Timed out waiting for notes " + notes,
+                    System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.syncslides.db;
+
+import io.v.syncslides.model.ListListener;
+
+/**
+ * A ListListener that ignores everything.  Adding one starts a list's Watcher.
+ */
+class NullListener implements ListListener {
+    @Override
+    public void notifyDataSetChanged() {
+    }
+
+    @Override
+    public void notifyItemChanged(int position) {
+    }
+
+    @Override
+    public void notifyItemInserted(int position) {
+    }
+
+    @Override
+    public void notifyItemRemoved(int position) {
+    }
+
+    @Override
+    public void notifyItemRangeChanged(int positionStart, int itemCount) {
+    }
+
+    @Override
+    public void notifyItemRangeInserted(int positionStart, int itemCount) {
+    }
+
+    @Override
+    public void notifyItemRangeRemoved(int positionStart, int itemCount) {
+    }
+
+    @Override
+    public void onError(Exception e) {
+    }
+}
@@ -0,0 +1,66 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.syncslides.db;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import io.v.syncslides.model.Slide;
+import io.v.syncslides.model.SlideImpl;
+
+/**
+ * Times the thumbnail handling of the Slide implementations that doesn't involve a
+ * Bitmap: wrapping a decoded VSlide in a DBSlide, copying a slide into a SlideImpl and
+ * reading the thumbnail bytes back.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SlideBenchmark {
+    private static final int THUMBNAIL_SIZE = 4 * 1024;
+
+    private VSlide mVSlide;
+    private Slide mDBSlide;
+    private Slide mSlideImpl;
+
+    @Setup
+    public void setUp() {
+        byte[] thumbnail = new byte[THUMBNAIL_SIZE];
+        new Random(0).nextBytes(thumbnail);
+        mVSlide = new VSlide(thumbnail, "");
+        mDBSlide = new DBSlide("deck/slides/0000", mVSlide, "notes");
+        mSlideImpl = new SlideImpl("deck/slides/0000", thumbnail, new byte[0], "notes");
+    }
+
+    @Benchmark
+    public byte[] dbSlideThumbData() {
+        return new DBSlide("deck/slides/0000", mVSlide, "notes").getThumbData();
+    }
+
+    @Benchmark
+    public byte[] slideImplThumbData() {
+        return mSlideImpl.getThumbData();
+    }
+
+    @Benchmark
+    public Slide copyToSlideImpl() {
+        return new SlideImpl(mDBSlide.getId(), mDBSlide.getThumbData(), null,
+                mDBSlide.getNotes());
+    }
+}
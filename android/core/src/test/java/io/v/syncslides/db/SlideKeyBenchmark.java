@@ -0,0 +1,85 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.syncslides.db;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import io.v.impl.google.naming.NamingUtil;
+
+/**
+ * Times building and parsing the Decks table keys of slides.  Both are done for every
+ * slide row that is imported, watched or collected.  The "legacy" benchmarks are the
+ * String.format() and NamingUtil.split() code that {@link SlideKeys} replaced.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SlideKeyBenchmark {
+    private final String mDeckId = UUID.randomUUID().toString();
+    private final String mSlideKey = SlideKeys.encode(mDeckId, 42);
+    private int mSlideNum;
+
+    @Benchmark
+    public String encode() {
+        mSlideNum = (mSlideNum + 1) % 1000;
+        return SlideKeys.encode(mDeckId, mSlideNum);
+    }
+
+    @Benchmark
+    public String encodeLegacy() {
+        mSlideNum = (mSlideNum + 1) % 1000;
+        return NamingUtil.join(mDeckId, SlideKeys.SLIDE_DIR, String.format("%04d", mSlideNum));
+    }
+
+    @Benchmark
+    public boolean isSlideKey() {
+        return SlideKeys.isSlideKey(mSlideKey);
+    }
+
+    @Benchmark
+    public boolean isSlideKeyLegacy() {
+        return isSlideKeyLegacy(mSlideKey);
+    }
+
+    @Benchmark
+    public boolean isSlideKeyOfDeck() {
+        return SlideKeys.isSlideKey(mDeckId);
+    }
+
+    @Benchmark
+    public boolean isSlideKeyOfDeckLegacy() {
+        return isSlideKeyLegacy(mDeckId);
+    }
+
+    @Benchmark
+    public int index() {
+        return SlideKeys.index(mSlideKey);
+    }
+
+    @Benchmark
+    public int indexLegacy() {
+        return Integer.parseInt(NamingUtil.split(mSlideKey).get(2));
+    }
+
+    private static boolean isSlideKeyLegacy(String key) {
+        List<String> parts = NamingUtil.split(key);
+        return parts.size() == 3 && parts.get(1).equals(SlideKeys.SLIDE_DIR);
+    }
+}
@@ -0,0 +1,182 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.syncslides.db;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class SlideKeysTest {
+    private static final String DECK = "deck";
+    private static final String TIEBREAK = "7";
+
+    @Test
+    public void encodeKeepsFourDigitKeys() throws Exception {
+        assertEquals("deck/slides/0000", SlideKeys.encode(DECK, 0));
+        assertEquals("deck/slides/0042", SlideKeys.encode(DECK, 42));
+        assertEquals("deck/slides/9999", SlideKeys.encode(DECK, 9999));
+        assertEquals("deck/slides/A10000", SlideKeys.encode(DECK, 10000));
+        assertEquals("deck/slides/F" + Integer.MAX_VALUE,
+                SlideKeys.encode(DECK, Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void encodeSortsInSlideOrder() throws Exception {
+        int[] indexes = {0, 9, 10, 999, 1000, 9999, 10000, 99999, 100000, 1234567,
+                Integer.MAX_VALUE};
+        for (int i = 1; i < indexes.length; i++) {
+            String lhs = SlideKeys.encode(DECK, indexes[i - 1]);
+            String rhs = SlideKeys.encode(DECK, indexes[i]);
+            assertTrue(lhs + " < " + rhs, lhs.compareTo(rhs) < 0);
+        }
+    }
+
+    @Test
+    public void indexRoundTrips() throws Exception {
+        for (int index : new int[]{0, 7, 9999, 10000, 123456, Integer.MAX_VALUE}) {
+            String key = SlideKeys.encode(DECK, index);
+            assertEquals(key, index, SlideKeys.index(key));
+            assertEquals(SlideKeys.SLIDE, SlideKeys.kind(key));
+            assertEquals(DECK, SlideKeys.deckId(key));
+        }
+    }
+
+    @Test
+    public void kindRejectsOtherKeys() throws Exception {
+        assertEquals(SlideKeys.DECK, SlideKeys.kind(DECK));
+        assertEquals(SlideKeys.OTHER, SlideKeys.kind(""));
+        assertEquals(SlideKeys.OTHER, SlideKeys.kind("deck/LastViewed"));
+        assertEquals(SlideKeys.OTHER, SlideKeys.kind("deck/slides/"));
+        assertEquals(SlideKeys.OTHER, SlideKeys.kind("deck/slides/42"));
+        assertEquals(SlideKeys.OTHER, SlideKeys.kind("deck/slides/00x2"));
+        assertEquals(SlideKeys.OTHER, SlideKeys.kind("deck/slides/0042/x"));
+        assertEquals(SlideKeys.OTHER, SlideKeys.kind("deck/slidez/0042"));
+        assertEquals(SlideKeys.OTHER, SlideKeys.kind("deck/slides/A01234"));
+        assertEquals(SlideKeys.OTHER, SlideKeys.kind("deck/slides/F9999999999"));
+        assertEquals(SlideKeys.OTHER, SlideKeys.kind("/slides/0042"));
+        assertEquals(SlideKeys.OTHER, SlideKeys.kind("deck/slides/0042."));
+        assertEquals(SlideKeys.OTHER, SlideKeys.kind("deck/slides/0042.50"));
+        assertEquals(SlideKeys.OTHER, SlideKeys.kind("deck/slides/0042.5x"));
+        assertEquals(SlideKeys.OTHER, SlideKeys.kind("deck/slides/."));
+        assertEquals(-1, SlideKeys.index(DECK));
+        assertEquals(DECK, SlideKeys.deckId("deck/LastViewed"));
+    }
+
+    @Test
+    public void kindAcceptsFractions() throws Exception {
+        for (String key : new String[]{"deck/slides/0042.5", "deck/slides/.05",
+                "deck/slides/A10000.999"}) {
+            assertEquals(key, SlideKeys.SLIDE, SlideKeys.kind(key));
+            assertEquals(key, -1, SlideKeys.index(key));
+        }
+    }
+
+    @Test
+    public void betweenPrefersIndexes() throws Exception {
+        assertEquals("deck/slides/0000.7", between(null, null));
+        assertEquals("deck/slides/0005.7", between(slide("0004"), null));
+        assertEquals("deck/slides/0005.7", between(slide("0004.5"), null));
+        assertEquals("deck/slides/0005.7", between(slide("0004"), slide("0007")));
+        assertEquals("deck/slides/0000.7", between(null, slide("0003")));
+        assertEquals("deck/slides/A10000.7", between(slide("9999"), null));
+    }
+
+    @Test
+    public void betweenUsesShortFractions() throws Exception {
+        assertEquals("deck/slides/0004.57", between(slide("0004"), slide("0005")));
+        assertEquals("deck/slides/0004.457", between(slide("0004.4"), slide("0004.5")));
+        assertEquals("deck/slides/0004.0057", between(slide("0004"), slide("0004.01")));
+        assertEquals("deck/slides/0004.957", between(slide("0004.9"), slide("0005")));
+        assertEquals("deck/slides/.57", between(null, slide("0000")));
+        assertEquals("deck/slides/.27", between(null, slide(".5")));
+        assertEquals("deck/slides/F" + Integer.MAX_VALUE + ".57",
+                between(SlideKeys.encode(DECK, Integer.MAX_VALUE), null));
+    }
+
+    @Test
+    public void betweenEndsInTiebreak() throws Exception {
+        // Two devices adding a slide to the same gap get different keys, and both go
+        // into the gap.
+        String before = slide("0004");
+        String after = slide("0005");
+        String lhs = SlideKeys.between(DECK, before, after, "123");
+        String rhs = SlideKeys.between(DECK, before, after, "124");
+        assertEquals("deck/slides/0004.5123", lhs);
+        assertEquals("deck/slides/0004.5124", rhs);
+        for (String key : new String[]{lhs, rhs}) {
+            assertTrue(before.compareTo(key) < 0 && key.compareTo(after) < 0);
+        }
+        // There is room between them and after a key that is the prefix of another.
+        String middle = SlideKeys.between(DECK, lhs, rhs, TIEBREAK);
+        assertTrue(lhs.compareTo(middle) < 0 && middle.compareTo(rhs) < 0);
+        String prefixed = SlideKeys.between(DECK, slide("0004.5"), lhs, TIEBREAK);
+        assertTrue(slide("0004.5").compareTo(prefixed) < 0 && prefixed.compareTo(lhs) < 0);
+    }
+
+    @Test
+    public void betweenUsesRandomTiebreaks() throws Exception {
+        Set<String> keys = new HashSet<>();
+        for (int i = 0; i < 10; i++) {
+            String key = SlideKeys.between(DECK, slide("0004"), slide("0005"));
+            assertEquals(key, SlideKeys.SLIDE, SlideKeys.kind(key));
+            assertEquals(key, slide("0004.5").length() + SlideKeys.TIEBREAK_DIGITS,
+                    key.length());
+            keys.add(key);
+        }
+        assertTrue(keys.size() > 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void betweenRejectsTrailingZeroTiebreak() throws Exception {
+        SlideKeys.between(DECK, null, null, "50");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void betweenRejectsEmptyTiebreak() throws Exception {
+        SlideKeys.between(DECK, null, null, "");
+    }
+
+    @Test
+    public void betweenAlwaysFindsRoom() throws Exception {
+        Random random = new Random(0);
+        List<String> keys = new ArrayList<>();
+        keys.add(SlideKeys.between(DECK, null, null));
+        for (int i = 0; i < 2000; i++) {
+            // Favor the front of the list so that fractions get long.
+            int pos = random.nextInt(4) == 0 ? random.nextInt(keys.size() + 1) : 0;
+            String before = pos == 0 ? null : keys.get(pos - 1);
+            String after = pos == keys.size() ? null : keys.get(pos);
+            String key = SlideKeys.between(DECK, before, after);
+            assertEquals(key, SlideKeys.SLIDE, SlideKeys.kind(key));
+            assertTrue(before == null || before.compareTo(key) < 0);
+            assertTrue(after == null || key.compareTo(after) < 0);
+            keys.add(pos, key);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void betweenRejectsWrongOrder() throws Exception {
+        SlideKeys.between(DECK, slide("0005"), slide("0004"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void betweenRejectsOtherDecks() throws Exception {
+        SlideKeys.between(DECK, "deck2/slides/0001", null);
+    }
+
+    private static String between(String before, String after) {
+        return SlideKeys.between(DECK, before, after, TIEBREAK);
+    }
+
+    private static String slide(String position) {
+        return SlideKeys.prefix(DECK) + position;
+    }
+}
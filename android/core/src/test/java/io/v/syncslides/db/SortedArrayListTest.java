@@ -0,0 +1,40 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.syncslides.db;
+
+import org.junit.Test;
+
+import java.util.Comparator;
+
+import static org.junit.Assert.*;
+
+public class SortedArrayListTest {
+    private static final Comparator<String> COMPARATOR = String::compareTo;
+
+    @Test
+    public void putKeepsOrderAndReplaces() throws Exception {
+        SortedArrayList<String> list = new SortedArrayList<>(COMPARATOR);
+        assertEquals(0, list.put("b"));
+        assertEquals(0, list.put("a"));
+        assertEquals(2, list.put("c"));
+        assertEquals(1, list.put("b"));
+        assertEquals(3, list.size());
+        assertEquals("a", list.get(0));
+        assertEquals("b", list.get(1));
+        assertEquals("c", list.get(2));
+    }
+
+    @Test
+    public void removeReturnsOldPosition() throws Exception {
+        SortedArrayList<String> list = new SortedArrayList<>(COMPARATOR);
+        list.put("a");
+        list.put("b");
+        list.put("c");
+        assertEquals(1, list.remove("b"));
+        assertEquals(-1, list.remove("b"));
+        assertEquals(2, list.size());
+        assertEquals("c", list.get(1));
+    }
+}
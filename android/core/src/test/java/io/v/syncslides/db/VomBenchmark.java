@@ -0,0 +1,67 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.syncslides.db;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import io.v.v23.verror.VException;
+import io.v.v23.vom.VomUtil;
+
+/**
+ * Times decoding the rows that the watchers read.  The slide and deck thumbnails are
+ * {@value #THUMBNAIL_SIZE} bytes, about the size of an imported thumbnail.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VomBenchmark {
+    private static final int THUMBNAIL_SIZE = 4 * 1024;
+
+    private byte[] mSlide;
+    private byte[] mDeck;
+    private byte[] mSession;
+
+    @Setup
+    public void setUp() throws VException {
+        byte[] thumbnail = new byte[THUMBNAIL_SIZE];
+        new Random(0).nextBytes(thumbnail);
+        mSlide = VomUtil.encode(new VSlide(thumbnail, UUID.randomUUID().toString()),
+                VSlide.class);
+        mDeck = VomUtil.encode(new VDeck("A deck", thumbnail), VDeck.class);
+        mSession = VomUtil.encode(new VSession(UUID.randomUUID().toString(), null, 3,
+                System.currentTimeMillis()), VSession.class);
+    }
+
+    @Benchmark
+    public Object decodeSlide() throws VException {
+        return VomUtil.decode(mSlide, VSlide.class);
+    }
+
+    @Benchmark
+    public Object decodeDeck() throws VException {
+        return VomUtil.decode(mDeck, VDeck.class);
+    }
+
+    @Benchmark
+    public Object decodeSession() throws VException {
+        return VomUtil.decode(mSession, VSession.class);
+    }
+}
@@ -0,0 +1,75 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.syncslides.db;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times the list updates that WatchedList makes for each put and delete from its Watcher,
+ * on slide lists of various sizes.  WatchedList keeps its elements in a SortedArrayList
+ * ordered the way SlideWatcher orders them, so that is what is measured here.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WatchedListBenchmark {
+    private static final Comparator<DBSlide> BY_ID = new Comparator<DBSlide>() {
+        @Override
+        public int compare(DBSlide lhs, DBSlide rhs) {
+            return lhs.getId().compareTo(rhs.getId());
+        }
+    };
+
+    @Param({"100", "1000", "10000"})
+    public int size;
+
+    private SortedArrayList<DBSlide> mList;
+    private DBSlide mExisting;
+    private DBSlide mNew;
+
+    @Setup
+    public void setUp() {
+        mList = new SortedArrayList<>(BY_ID);
+        VSlide vSlide = new VSlide(new byte[0], "");
+        // Every other slide number, so that mNew goes in the middle of the list.
+        for (int i = 0; i < size; i++) {
+            mList.put(new DBSlide(SlideKeys.encode("deck", 2 * i), vSlide, null));
+        }
+        mExisting = new DBSlide(SlideKeys.encode("deck", size), vSlide, "changed");
+        mNew = new DBSlide(SlideKeys.encode("deck", size + 1), vSlide, null);
+    }
+
+    /**
+     * A put of a slide that is already in the list, e.g. its notes changed.
+     */
+    @Benchmark
+    public int putExisting() {
+        return mList.put(mExisting);
+    }
+
+    /**
+     * A put of a new slide followed by its delete, which leaves the list as it was.
+     */
+    @Benchmark
+    public int putAndDelete() {
+        return mList.put(mNew) + mList.remove(mNew);
+    }
+}
@@ -0,0 +1,402 @@
+// Copyright 2015 The Vanadium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style
+// license that can be found in the LICENSE file.
+
+package io.v.syncslides.db;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import io.v.syncslides.lib.ExecutorDispatcher;
+import io.v.syncslides.model.ListListener;
+import io.v.v23.context.VContext;
+import io.v.v23.services.watch.ResumeMarker;
+import io.v.v23.verror.VException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Drives a WatchedList from a scripted Watcher, with a single executor thread standing in
+ * for the main thread.
+ */
+public class WatchedListTest {
+    private static final long TIMEOUT_MS = 30000;
+    private static final String TABLE = "table";
+
+    private ScheduledExecutorService mMainThread;
+
+    @Before
+    public void setUp() throws Exception {
+        mMainThread = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mMainThread.shutdownNow();
+    }
+
+    @Test
+    public void fullLoadDropsStaleSnapshot() throws Exception {
+        // The snapshot has "deleted", which the store no longer has.  The Watcher can't
+        // resume from the snapshot's marker and loads everything before the snapshot is
+        // shown.
+        CountDownLatch loaded = new CountDownLatch(1);
+        FakeSnapshot snapshot = new FakeSnapshot(ImmutableList.of("deleted", "kept"), loaded);
+        Watcher<String> watcher = new ScriptedWatcher(loaded, "kept", "new");
+        WatchedList<String> list = new WatchedList<>(null, watcher, snapshot,
+                new ExecutorDispatcher(mMainThread));
+        NullListener listener = new NullListener();
+        onMain(() -> list.addListener(listener));
+
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (onMain(list::getItemCount) != 2 || !onMain(() -> list.get(0)).equals("kept")) {
+            assertTrue("Timed out waiting for the loaded elements",
+                    System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        assertEquals("new", onMain(() -> list.get(1)));
+
+        // Removing the last listener saves the pending snapshot right away.
+        onMain(() -> list.removeListener(listener));
+        assertEquals(ImmutableList.of("kept", "new"), snapshot.awaitSaved());
+    }
+
+    @Test
+    public void rejectedSnapshotFallsBackToFullLoad() throws Exception {
+        // Syncbase won't watch from the snapshot's marker, e.g. because the database was
+        // recreated.  The list loads everything instead of failing.
+        FakeSnapshot snapshot = new FakeSnapshot(ImmutableList.of("deleted", "kept"),
+                new CountDownLatch(0));
+        ScriptedWatcher watcher = new ScriptedWatcher(new CountDownLatch(1), "kept", "new");
+        watcher.rejectMarkers();
+        WatchedList<String> list = new WatchedList<>(null, watcher, snapshot,
+                new ExecutorDispatcher(mMainThread));
+        AtomicReference<Exception> error = new AtomicReference<>();
+        NullListener listener = new NullListener() {
+            @Override
+            public void onError(Exception e) {
+                error.set(e);
+            }
+        };
+        onMain(() -> list.addListener(listener));
+
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (onMain(list::getItemCount) != 2 || !onMain(() -> list.get(0)).equals("kept")) {
+            assertTrue("Timed out waiting for the loaded elements",
+                    System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        assertEquals("new", onMain(() -> list.get(1)));
+        assertNull(error.get());
+        assertTrue(snapshot.mCleared);
+
+        onMain(() -> list.removeListener(listener));
+        assertEquals(ImmutableList.of("kept", "new"), snapshot.awaitSaved());
+    }
+
+    @Test
+    public void initialLoadIsOneRangeInsert() throws Exception {
+        QueueWatcher watcher = new QueueWatcher();
+        WatchedList<String> list = new WatchedList<>(null, watcher, null,
+                new ExecutorDispatcher(mMainThread));
+        RecordingListener listener = new RecordingListener();
+        onMain(() -> list.addListener(listener));
+        load(watcher, "a", "c", "e");
+
+        assertEquals(ImmutableList.of("notifyDataSetChanged()", "notifyItemRangeInserted(0, 3)"),
+                listener.await(2));
+        onMain(() -> list.removeListener(listener));
+    }
+
+    @Test
+    public void adjacentChangesAreMergedIntoRanges() throws Exception {
+        QueueWatcher watcher = new QueueWatcher();
+        WatchedList<String> list = new WatchedList<>(null, watcher, null,
+                new ExecutorDispatcher(mMainThread));
+        RecordingListener listener = new RecordingListener();
+        onMain(() -> list.addListener(listener));
+        load(watcher, "a", "c", "e");
+        listener.await(2);
+
+        // Inserted at 2 and then at 3.
+        sendBatch(watcher, l -> {
+            l.onPut("d");
+            l.onPut("d2");
+        });
+        assertEquals("notifyItemRangeInserted(2, 2)", listener.await(3).get(2));
+        // Changed at 3 and then at 2.
+        sendBatch(watcher, l -> {
+            l.onPut("d2");
+            l.onPut("d");
+        });
+        assertEquals("notifyItemRangeChanged(2, 2)", listener.await(4).get(3));
+        // Removed at 0 and then at 0 again.
+        sendBatch(watcher, l -> {
+            l.onDelete("a");
+            l.onDelete("c");
+        });
+        assertEquals(ImmutableList.of("notifyDataSetChanged()",
+                "notifyItemRangeInserted(0, 3)",
+                "notifyItemRangeInserted(2, 2)",
+                "notifyItemRangeChanged(2, 2)",
+                "notifyItemRangeRemoved(0, 2)"), listener.await(5));
+        assertEquals(ImmutableList.of("d", "d2", "e"),
+                onMain(() -> ImmutableList.of(list.get(0), list.get(1), list.get(2))));
+        onMain(() -> list.removeListener(listener));
+    }
+
+    /**
+     * Has {@code watcher} load {@code elems} as its initial data set.
+     */
+    private void load(QueueWatcher watcher, String... elems) throws InterruptedException {
+        sendBatch(watcher, l -> {
+            for (String elem : elems) {
+                l.onPut(elem);
+            }
+            l.onInitialStateLoaded();
+        });
+    }
+
+    /**
+     * Has {@code watcher} pass on {@code changes} while the main thread is held up, so
+     * that they are applied as one batch.
+     */
+    private void sendBatch(QueueWatcher watcher, Consumer<Watcher.Listener<String>> changes)
+            throws InterruptedException {
+        CountDownLatch sent = new CountDownLatch(1);
+        mMainThread.execute(() -> {
+            try {
+                sent.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        watcher.send(l -> {
+            changes.accept(l);
+            sent.countDown();
+        });
+    }
+
+    private <T> T onMain(Callable<T> callable) throws Exception {
+        return mMainThread.submit(callable).get();
+    }
+
+    private void onMain(Runnable runnable) throws Exception {
+        mMainThread.submit(runnable).get();
+    }
+
+    private static ResumeMarker marker(int n) {
+        return new ResumeMarker(new byte[]{(byte) n});
+    }
+
+    /**
+     * A snapshot that is kept in memory.  Loading it holds up the main thread until
+     * {@code released} counts down, so that anything the Watcher sends before then
+     * reaches the list together with the snapshot.
+     */
+    private class FakeSnapshot extends ListSnapshot<String> {
+        private final List<String> mElems;
+        private final CountDownLatch mReleased;
+        private List<String> mSaved;
+        private volatile boolean mCleared;
+
+        FakeSnapshot(List<String> elems, CountDownLatch released) {
+            super(null, null);
+            mElems = elems;
+            mReleased = released;
+        }
+
+        @Override
+        Contents<String> load() {
+            mMainThread.execute(() -> {
+                try {
+                    mReleased.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            return new Contents<>(mElems, ImmutableMap.of(TABLE, marker(1)));
+        }
+
+        @Override
+        synchronized void save(List<String> elems, Map<String, ResumeMarker> resumeMarkers) {
+            mSaved = ImmutableList.copyOf(elems);
+            notifyAll();
+        }
+
+        @Override
+        void clear() {
+            mCleared = true;
+        }
+
+        synchronized List<String> awaitSaved() throws InterruptedException {
+            long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+            while (mSaved == null) {
+                long remaining = deadline - System.currentTimeMillis();
+                assertTrue("Timed out waiting for a save", remaining > 0);
+                wait(remaining);
+            }
+            return mSaved;
+        }
+    }
+
+    /**
+     * Never resumes: loads {@code elems}, then counts down {@code loaded} and waits to be
+     * stopped.  See {@link #rejectMarkers} for how it fails to resume.
+     */
+    private static class ScriptedWatcher implements Watcher<String> {
+        private final CountDownLatch mLoaded;
+        private final String[] mElems;
+        private boolean mRejectMarkers;
+
+        ScriptedWatcher(CountDownLatch loaded, String... elems) {
+            mLoaded = loaded;
+            mElems = elems;
+        }
+
+        /**
+         * Makes the Watcher fail right after it resumes from markers, the way it does
+         * when Syncbase rejects them.
+         */
+        void rejectMarkers() {
+            mRejectMarkers = true;
+        }
+
+        @Override
+        public void watch(VContext context, Map<String, ResumeMarker> resumeMarkers,
+                          Listener<String> listener) {
+            if (mRejectMarkers && resumeMarkers != null) {
+                listener.onResumed();
+                listener.onCheckpoint(TABLE, resumeMarkers.get(TABLE));
+                listener.onError(new VException("Bad resume marker"));
+                return;
+            }
+            for (String elem : mElems) {
+                listener.onPut(elem);
+            }
+            listener.onInitialStateLoaded();
+            listener.onCheckpoint(TABLE, marker(2));
+            mLoaded.countDown();
+            try {
+                Thread.sleep(Long.MAX_VALUE);
+            } catch (InterruptedException e) {
+                // Stopped by the WatchedList.
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public int compare(String lhs, String rhs) {
+            return lhs.compareTo(rhs);
+        }
+    }
+
+    /**
+     * Passes on whatever it is sent, initial data set included, in its own thread.
+     */
+    private static class QueueWatcher implements Watcher<String> {
+        private final BlockingQueue<Consumer<Listener<String>>> mSteps =
+                new LinkedBlockingQueue<>();
+
+        void send(Consumer<Listener<String>> step) {
+            mSteps.add(step);
+        }
+
+        @Override
+        public void watch(VContext context, Map<String, ResumeMarker> resumeMarkers,
+                          Listener<String> listener) {
+            try {
+                while (true) {
+                    mSteps.take().accept(listener);
+                }
+            } catch (InterruptedException e) {
+                // Stopped by the WatchedList.
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public int compare(String lhs, String rhs) {
+            return lhs.compareTo(rhs);
+        }
+    }
+
+    /**
+     * Records the notifications it gets, which arrive on the main thread.
+     */
+    private class RecordingListener implements ListListener {
+        private final List<String> mCalls = Lists.newArrayList();
+
+        /**
+         * Waits for at least {@code count} notifications and returns all of them.
+         */
+        List<String> await(int count) throws Exception {
+            long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+            while (true) {
+                List<String> calls = onMain(() -> ImmutableList.copyOf(mCalls));
+                if (calls.size() >= count) {
+                    return calls;
+                }
+                assertTrue("Timed out waiting for notifications; got " + calls,
+                        System.currentTimeMillis() < deadline);
+                Thread.sleep(10);
+            }
+        }
+
+        @Override
+        public void notifyDataSetChanged() {
+            mCalls.add("notifyDataSetChanged()");
+        }
+
+        @Override
+        public void notifyItemChanged(int position) {
+            mCalls.add("notifyItemChanged(" + position + ")");
+        }
+
+        @Override
+        public void notifyItemInserted(int position) {
+            mCalls.add("notifyItemInserted(" + position + ")");
+        }
+
+        @Override
+        public void notifyItemRemoved(int position) {
+            mCalls.add("notifyItemRemoved(" + position + ")");
+        }
+
+        @Override
+        public void notifyItemRangeChanged(int positionStart, int itemCount) {
+            mCalls.add("notifyItemRangeChanged(" + positionStart + ", " + itemCount + ")");
+        }
+
+        @Override
+        public void notifyItemRangeInserted(int positionStart, int itemCount) {
+            mCalls.add("notifyItemRangeInserted(" + positionStart + ", " + itemCount + ")");
+        }
+
+        @Override
+        public void notifyItemRangeRemoved(int positionStart, int itemCount) {
+            mCalls.add("notifyItemRangeRemoved(" + positionStart + ", " + itemCount + ")");
+        }
+
+        @Override
+        public void onError(Exception e) {
+            mCalls.add("onError(" + e + ")");
+        }
+    }
+}